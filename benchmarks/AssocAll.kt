@@ -0,0 +1,49 @@
+package net.akrain.fdmap.benchmarks
+
+import java.util.concurrent.TimeUnit
+import net.akrain.fdmap.Map as FdMap
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+// Applying a batch of updates to a 1M-entry map: half of the updates
+// replace values, the other half add new keys
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class AssocAll1000000 {
+
+    @Param("100", "10000")
+    var batchSize = 0
+
+    private var map = FdMap.blank()
+    private var batch = HashMap<Any, Any>()
+
+    @Setup(Level.Trial)
+    fun setup() {
+        val transient = FdMap.blank().asTransient()
+        for (i in 0 until 1000000)
+            transient.assoc(i, i)
+        map = transient.persistent()
+        val random = java.util.Random(42)
+        batch = HashMap()
+        while (batch.size < batchSize)
+            batch.put(random.nextInt(2000000), -1)
+    }
+
+    @Benchmark
+    fun assoc(): FdMap {
+        var m = map
+        for ((key, value) in batch)
+            m = m.assoc(key, value)
+        return m
+    }
+
+    @Benchmark
+    fun assocAll(): FdMap {
+        return map.assocAll(batch)
+    }
+}
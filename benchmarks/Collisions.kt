@@ -0,0 +1,106 @@
+package net.akrain.fdmap.benchmarks
+
+import java.util.concurrent.TimeUnit
+import java.util.function.ToIntFunction
+import net.akrain.fdmap.Map as FdMap
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+// All the keys have the same hash, so the map is a single CollisionNode
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class ConstantHash {
+
+    @Param("4", "16", "64")
+    var size = 0
+
+    private val hasher = ToIntFunction<Any> { 42 }
+    private var keys = arrayOf<String>()
+    private var map = FdMap.blank()
+
+    @Setup(Level.Trial)
+    fun setup() {
+        keys = Array(size) { "key$it" }
+        map = build()
+    }
+
+    private fun build(): FdMap {
+        var m = FdMap.blank(hasher)
+        for (key in keys)
+            m = m.assoc(key, key)
+        return m
+    }
+
+    @Benchmark
+    fun get(): Int {
+        var found = 0
+        for (key in keys)
+            if (map.get(key) != null)
+                found += 1
+        return found
+    }
+
+    @Benchmark
+    fun assoc(): FdMap {
+        return build()
+    }
+
+    @Benchmark
+    fun dissoc(): FdMap {
+        var m = map
+        for (key in keys)
+            m = m.dissoc(key)
+        return m
+    }
+}
+
+// String keys hashed with a weak hasher, which keeps only 13 bits of
+// String.hashCode(), so there are about 12 keys per hash
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class LowEntropyHash100000 {
+
+    private val hasher = ToIntFunction<Any> { it.hashCode() and 0x1FFF }
+    private var keys = arrayOf<String>()
+    private var map = FdMap.blank()
+
+    @Setup(Level.Trial)
+    fun setup() {
+        keys = Array(100000) { "key$it" }
+        map = build()
+    }
+
+    private fun build(): FdMap {
+        val transient = FdMap.blank(hasher).asTransient()
+        for (key in keys)
+            transient.assoc(key, key)
+        return transient.persistent()
+    }
+
+    @Benchmark
+    fun get(): Int {
+        var found = 0
+        for (key in keys)
+            if (map.get(key) != null)
+                found += 1
+        return found
+    }
+
+    @Benchmark
+    fun buildMap(): FdMap {
+        return build()
+    }
+
+    @Benchmark
+    fun dissoc(): FdMap {
+        var m = map
+        for (i in 0 until keys.size step 10)
+            m = m.dissoc(keys[i])
+        return m
+    }
+}
@@ -0,0 +1,61 @@
+package net.akrain.fdmap.benchmarks
+
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+import net.akrain.fdmap.DiffVisitor
+import net.akrain.fdmap.Map as FdMap
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+private class CountingVisitor : DiffVisitor {
+    var count = 0
+    override fun added(key: Any?, value: Any?) { count += 1 }
+    override fun removed(key: Any?, value: Any?) { count += 1 }
+    override fun changed(key: Any?, oldValue: Any?, newValue: Any?) {
+        count += 1
+    }
+}
+
+// Change set between two versions of a 1M-entry map,
+// which differ in 100 entries.
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class Diff1000000 {
+
+    private var oldMap = FdMap.blank()
+    private var newMap = FdMap.blank()
+
+    @Setup(Level.Trial)
+    fun setup() {
+        val transient = FdMap.blank().asTransient()
+        for (i in 0 until 1000000)
+            transient.assoc(i, i)
+        oldMap = transient.persistent()
+        newMap = oldMap
+        for (i in 0 until 100) {
+            val key = Random.nextInt(1000000)
+            newMap = when (i % 3) {
+                0 -> newMap.dissoc(key)
+                1 -> newMap.assoc(key, -key)
+                else -> newMap.assoc(Random.nextInt(), i)
+            }
+        }
+    }
+
+    @Benchmark
+    fun diff(): Int {
+        val visitor = CountingVisitor()
+        oldMap.diff(newMap, visitor)
+        return visitor.count
+    }
+
+    @Benchmark
+    fun twoDifferences(): Int {
+        return oldMap.difference(newMap).count() +
+            newMap.difference(oldMap).count()
+    }
+}
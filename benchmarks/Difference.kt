@@ -0,0 +1,67 @@
+package net.akrain.fdmap.benchmarks
+
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+import net.akrain.fdmap.Map as FdMap
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+
+// Difference and intersection of two 1M-entry maps, built independently
+// (so they share no nodes) and differing in 1% of the entries.
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class Difference1000000 {
+
+    @Param("1", "4", "16")
+    var threads = 1
+
+    private var map1 = FdMap.blank()
+    private var map2 = FdMap.blank()
+    private var pool = ForkJoinPool(1)
+
+    @Setup(Level.Trial)
+    fun setup() {
+        val transient1 = FdMap.blank().asTransient()
+        val transient2 = FdMap.blank().asTransient()
+        for (i in 0 until 1000000) {
+            transient1.assoc(i, i)
+            val value = if (Random.nextInt(100) == 0) -i else i
+            transient2.assoc(i, value)
+        }
+        map1 = transient1.persistent()
+        map2 = transient2.persistent()
+        pool = ForkJoinPool(threads)
+    }
+
+    @TearDown(Level.Trial)
+    fun tearDown() {
+        pool.shutdown()
+    }
+
+    @Benchmark
+    fun difference(): FdMap {
+        return map1.difference(map2)
+    }
+
+    @Benchmark
+    fun parallelDifference(): FdMap {
+        return map1.difference(map2, pool)
+    }
+
+    @Benchmark
+    fun intersection(): FdMap {
+        return map1.intersection(map2)
+    }
+
+    @Benchmark
+    fun parallelIntersection(): FdMap {
+        return map1.intersection(map2, pool)
+    }
+}
@@ -0,0 +1,43 @@
+package net.akrain.fdmap.benchmarks
+
+import clojure.lang.APersistentMap
+import java.util.concurrent.TimeUnit
+import net.akrain.fdmap.Map as FdMap
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+// Hashing all the entries of a 1M-entry map one by one, the way
+// APersistentMap.hashCode() does, and building such a map (which
+// hashes every new entry to maintain the hash sums of the nodes).
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class EntryHash1000000 {
+
+    private var map = FdMap.blank()
+
+    @Setup(Level.Trial)
+    fun setup() {
+        map = build()
+    }
+
+    private fun build(): FdMap {
+        val transient = FdMap.blank().asTransient()
+        for (i in 0 until 1000000)
+            transient.assoc(i, "value")
+        return transient.persistent()
+    }
+
+    @Benchmark
+    fun entryHashes(): Int {
+        return APersistentMap.mapHash(map)
+    }
+
+    @Benchmark
+    fun buildMap(): FdMap {
+        return build()
+    }
+}
@@ -4,6 +4,7 @@ import clojure.lang.IPersistentMap
 import clojure.lang.PersistentHashMap
 import io.vavr.collection.HashMap
 import java.util.concurrent.TimeUnit
+import net.akrain.fdmap.Map as FdMap
 import net.akrain.fdmap.kotlin.PHashMap
 import org.openjdk.jmh.annotations.Benchmark
 import org.openjdk.jmh.annotations.Level
@@ -119,3 +120,37 @@ open class Equiv10000 {
         return cmapL.equals(cmapR)
     }
 }
+
+// Maps with the same contents, but built independently, so they share
+// no nodes. `different` has a single value changed.
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class EquivIndependent1000000 {
+
+    private var fmapL = FdMap.blank()
+    private var fmapR = FdMap.blank()
+    private var fmapD = FdMap.blank()
+
+    @Setup(Level.Trial)
+    fun setup() {
+        val left = FdMap.blank().asTransient()
+        val right = FdMap.blank().asTransient()
+        for (i in 0 until 1000000) {
+            left.assoc(i, "value$i")
+            right.assoc(i, "value$i")
+        }
+        fmapL = left.persistent()
+        fmapR = right.persistent()
+        fmapD = fmapR.assoc(500000, "other")
+    }
+
+    @Benchmark
+    fun same(): Boolean {
+        return fmapL.equiv(fmapR)
+    }
+
+    @Benchmark
+    fun different(): Boolean {
+        return fmapL.equiv(fmapD)
+    }
+}
@@ -0,0 +1,66 @@
+package net.akrain.fdmap.benchmarks
+
+import clojure.lang.AFn
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.TimeUnit
+import net.akrain.fdmap.Map as FdMap
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+
+private val ADD_LONGS = object : AFn() {
+    override fun invoke(): Any? {
+        return 0L
+    }
+    override fun invoke(left: Any?, right: Any?): Any? {
+        return (left as Long) + (right as Long)
+    }
+}
+
+private val ADD_VALUES = object : AFn() {
+    override fun invoke(acc: Any?, key: Any?, value: Any?): Any? {
+        return (acc as Long) + (value as Int)
+    }
+}
+
+// Compares parallel folding against sequential kvreduce
+// with the given number of worker threads.
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class Fold1000000 {
+
+    @Param("1", "4", "16")
+    var threads = 1
+
+    private var map = FdMap.blank()
+    private var pool = ForkJoinPool(1)
+
+    @Setup(Level.Trial)
+    fun setup() {
+        val transient = FdMap.blank().asTransient()
+        for (i in 0 until 1000000)
+            transient.assoc(i, i)
+        map = transient.persistent()
+        pool = ForkJoinPool(threads)
+    }
+
+    @TearDown(Level.Trial)
+    fun tearDown() {
+        pool.shutdown()
+    }
+
+    @Benchmark
+    fun fold(): Any? {
+        return map.fold(512, ADD_LONGS, ADD_VALUES, pool)
+    }
+
+    @Benchmark
+    fun kvreduce(): Any? {
+        return map.kvreduce(ADD_VALUES, 0L)
+    }
+}
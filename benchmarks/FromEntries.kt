@@ -0,0 +1,58 @@
+package net.akrain.fdmap.benchmarks
+
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.TimeUnit
+import net.akrain.fdmap.Map as FdMap
+import net.akrain.fdmap.Nodes
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+// Building a 1M-entry map from a list of entries: one by one, through a
+// transient, bottom-up from the entries sorted by hash, and bottom-up
+// by the slots of the root in parallel
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class FromEntries1000000 {
+
+    private var entries = listOf<Nodes.Entry>()
+
+    @Setup(Level.Trial)
+    fun setup() {
+        val random = java.util.Random(42)
+        entries = List(1000000) {
+            val key = random.nextLong()
+            Nodes.Entry(0, key, key)
+        }
+    }
+
+    @Benchmark
+    fun assoc(): FdMap {
+        var m = FdMap.blank()
+        for (entry in entries)
+            m = m.assoc(entry.key, entry.value)
+        return m
+    }
+
+    @Benchmark
+    fun transientAssoc(): FdMap {
+        val transient = FdMap.blank().asTransient()
+        for (entry in entries)
+            transient.assoc(entry.key, entry.value)
+        return transient.persistent()
+    }
+
+    @Benchmark
+    fun fromEntries(): FdMap {
+        return FdMap.fromEntries(entries)
+    }
+
+    @Benchmark
+    fun parallelBuild(): FdMap {
+        return FdMap.parallelBuild(
+            entries.parallelStream(), ForkJoinPool.commonPool())
+    }
+}
@@ -0,0 +1,40 @@
+package net.akrain.fdmap.benchmarks
+
+import java.util.concurrent.TimeUnit
+import net.akrain.fdmap.Map as FdMap
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+// Hash of a freshly derived 500k-entry map, as happens when
+// a new version of the map is used as a key.
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class Hash500000 {
+
+    private var map = FdMap.blank()
+    private var index = 0
+
+    @Setup(Level.Trial)
+    fun setup() {
+        val transient = FdMap.blank().asTransient()
+        for (i in 0 until 500000)
+            transient.assoc(i, i)
+        map = transient.persistent()
+    }
+
+    @Benchmark
+    fun hashCodeAfterAssoc(): Int {
+        index += 1
+        return map.assoc(index % 500000, index).hashCode()
+    }
+
+    @Benchmark
+    fun hasheqAfterAssoc(): Int {
+        index += 1
+        return map.assoc(index % 500000, index).hasheq()
+    }
+}
@@ -0,0 +1,80 @@
+package net.akrain.fdmap.benchmarks
+
+import clojure.lang.AFn
+import clojure.lang.IKVReduce
+import clojure.lang.IPersistentMap
+import clojure.lang.PersistentHashMap
+import java.util.concurrent.TimeUnit
+import net.akrain.fdmap.Map as FdMap
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+private val SUM_VALUES = object : AFn() {
+    override fun invoke(acc: Any?, key: Any?, value: Any?): Any? {
+        return (acc as Long) + (value as Int)
+    }
+}
+
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class KVReduce100000 {
+
+    private var fmap = FdMap.blank()
+    private var cmap: IKVReduce = PersistentHashMap.EMPTY
+
+    @Setup(Level.Trial)
+    fun setup() {
+        val fmapTransient = FdMap.blank().asTransient()
+        var cmapPersistent: IPersistentMap = PersistentHashMap.EMPTY
+        for (i in 0..100000) {
+            fmapTransient.assoc(i, i)
+            cmapPersistent = cmapPersistent.assoc(i, i)
+        }
+        fmap = fmapTransient.persistent()
+        cmap = cmapPersistent as IKVReduce
+    }
+
+    @Benchmark
+    fun fdmap(): Any? {
+        return fmap.kvreduce(SUM_VALUES, 0L)
+    }
+
+    @Benchmark
+    fun clojure(): Any? {
+        return cmap.kvreduce(SUM_VALUES, 0L)
+    }
+}
+
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class KVReduce1000000 {
+
+    private var fmap = FdMap.blank()
+    private var cmap: IKVReduce = PersistentHashMap.EMPTY
+
+    @Setup(Level.Trial)
+    fun setup() {
+        val fmapTransient = FdMap.blank().asTransient()
+        var cmapPersistent: IPersistentMap = PersistentHashMap.EMPTY
+        for (i in 0..1000000) {
+            fmapTransient.assoc(i, i)
+            cmapPersistent = cmapPersistent.assoc(i, i)
+        }
+        fmap = fmapTransient.persistent()
+        cmap = cmapPersistent as IKVReduce
+    }
+
+    @Benchmark
+    fun fdmap(): Any? {
+        return fmap.kvreduce(SUM_VALUES, 0L)
+    }
+
+    @Benchmark
+    fun clojure(): Any? {
+        return cmap.kvreduce(SUM_VALUES, 0L)
+    }
+}
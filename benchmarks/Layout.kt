@@ -0,0 +1,71 @@
+package net.akrain.fdmap.benchmarks
+
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+import net.akrain.fdmap.Map as FdMap
+import net.akrain.fdmap.kotlin.PHashMap
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+// Compares bitmap-indexed nodes of net.akrain.fdmap.Map against
+// the fixed 32-slot nodes, which are still used by PHashMap.
+// Run with `-prof gc` to see allocated bytes per operation.
+
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class AssocLayout {
+
+    private val keys = IntArray(100000) { Random.nextInt() }
+    private var bitmapMap = FdMap.blank()
+    private var fullMap = PHashMap.blank()
+    private var index = 0
+
+    @Setup(Level.Trial)
+    fun setup() {
+        bitmapMap = FdMap.blank()
+        fullMap = PHashMap.blank()
+        for (key in keys) {
+            bitmapMap = bitmapMap.assoc(key, key)
+            fullMap = fullMap.assoc(key, key)
+        }
+    }
+
+    @Benchmark
+    fun bitmapNodes(): FdMap {
+        index = (index + 1) % keys.size
+        return bitmapMap.assoc(keys[index], index)
+    }
+
+    @Benchmark
+    fun fullNodes(): PHashMap {
+        index = (index + 1) % keys.size
+        return fullMap.assoc(keys[index], index)
+    }
+}
+
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class BuildLayout {
+
+    private val keys = IntArray(100000) { Random.nextInt() }
+
+    @Benchmark
+    fun bitmapNodes(): FdMap {
+        var result = FdMap.blank()
+        for (key in keys)
+            result = result.assoc(key, key)
+        return result
+    }
+
+    @Benchmark
+    fun fullNodes(): PHashMap {
+        var result = PHashMap.blank()
+        for (key in keys)
+            result = result.assoc(key, key)
+        return result
+    }
+}
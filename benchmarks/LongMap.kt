@@ -0,0 +1,56 @@
+package net.akrain.fdmap.benchmarks
+
+import java.util.concurrent.TimeUnit
+import net.akrain.fdmap.LongMap
+import net.akrain.fdmap.Map as FdMap
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+// Lookups and updates of long keys in a LongMap and in a Map with
+// boxed keys.
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class LongKeys1000000 {
+
+    private var map = FdMap.blank()
+    private var longMap = LongMap.blank()
+    private var index = 0L
+
+    @Setup(Level.Trial)
+    fun setup() {
+        val transient = FdMap.blank().asTransient()
+        for (i in 0L until 1000000L) {
+            transient.assoc(i * 31, i)
+            longMap = longMap.assoc(i * 31, i)
+        }
+        map = transient.persistent()
+    }
+
+    @Benchmark
+    fun getBoxed(): Any? {
+        index += 7919
+        return map.get((index % 1000000) * 31)
+    }
+
+    @Benchmark
+    fun getLong(): Any? {
+        index += 7919
+        return longMap.get((index % 1000000) * 31)
+    }
+
+    @Benchmark
+    fun assocBoxed(): Any {
+        index += 7919
+        return map.assoc((index % 1000000) * 31, index)
+    }
+
+    @Benchmark
+    fun assocLong(): Any {
+        index += 7919
+        return longMap.assoc((index % 1000000) * 31, index)
+    }
+}
@@ -0,0 +1,86 @@
+package net.akrain.fdmap.benchmarks
+
+import java.util.concurrent.TimeUnit
+import net.akrain.fdmap.Map as FdMap
+import net.akrain.fdmap.Nodes
+import net.akrain.fdmap.Seq
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+// The single-map operations of net.akrain.fdmap.Map on 100K entries, to
+// measure changes to node dispatch in Nodes (Get100000 and Assoc100000
+// drive the Kotlin PHashMap instead).
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class MapOps100000 {
+
+    private var map = FdMap.blank()
+    private var other = FdMap.blank()
+    private var copy = FdMap.blank()
+
+    @Setup(Level.Trial)
+    fun setup() {
+        map = FdMap.blank()
+        other = FdMap.blank()
+        copy = FdMap.blank()
+        // Built independently, so the maps share no nodes
+        for (i in 0 until 100000) {
+            map = map.assoc(i, i)
+            other = other.assoc(i, if (i % 100 == 0) -i else i)
+            copy = copy.assoc(i, i)
+        }
+    }
+
+    @Benchmark
+    fun get(): Int {
+        var result = 0
+        for (i in 0 until 100000)
+            result += map.valAt(i) as Int
+        return result
+    }
+
+    @Benchmark
+    fun assoc(): FdMap {
+        var result = FdMap.blank()
+        for (i in 0 until 100000)
+            result = result.assoc(i, i)
+        return result
+    }
+
+    @Benchmark
+    fun seq(): Int {
+        var result = 0
+        var s = map.seq()
+        while (s != null) {
+            result += s.first().hashCode()
+            s = s.next()
+        }
+        return result
+    }
+
+    // A Seq without an iterator looks each following entry up from the root
+    @Benchmark
+    fun seqFromRoot(): Int {
+        var result = 0
+        var s: Seq? = Nodes.seq(map.root, map.root)
+        while (s != null) {
+            result += s.first().hashCode()
+            s = s.next()
+        }
+        return result
+    }
+
+    @Benchmark
+    fun difference(): FdMap {
+        return map.difference(other)
+    }
+
+    @Benchmark
+    fun equiv(): Boolean {
+        return map.equiv(copy)
+    }
+}
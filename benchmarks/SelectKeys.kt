@@ -0,0 +1,59 @@
+package net.akrain.fdmap.benchmarks
+
+import java.util.concurrent.TimeUnit
+import net.akrain.fdmap.Map as FdMap
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+// Removing/selecting the keys of another map, derived from the first one
+// by removing 1% of the keys and changing values of another 1% of them,
+// compared to iterating over the keys of the other map.
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class SelectKeys100000 {
+
+    private var map1 = FdMap.blank()
+    private var map2 = FdMap.blank()
+
+    @Setup(Level.Trial)
+    fun setup() {
+        val transient = FdMap.blank().asTransient()
+        for (i in 0 until 100000)
+            transient.assoc(i, i)
+        map1 = transient.persistent()
+        map2 = map1
+        for (i in 0 until 100000 step 100) {
+            map2 = map2.dissoc(i).assoc(i + 1, -i)
+        }
+    }
+
+    @Benchmark
+    fun withoutKeys(): FdMap {
+        return map1.withoutKeys(map2)
+    }
+
+    @Benchmark
+    fun withoutKeysByIteration(): FdMap {
+        val transient = map1.asTransient()
+        for (entry in map2)
+            transient.without(entry.key)
+        return transient.persistent()
+    }
+
+    @Benchmark
+    fun selectKeys(): FdMap {
+        return map1.selectKeys(map2)
+    }
+
+    @Benchmark
+    fun selectKeysByIteration(): FdMap {
+        val transient = FdMap.blank().asTransient()
+        for (entry in map2)
+            transient.assoc(entry.key, map1.get(entry.key))
+        return transient.persistent()
+    }
+}
@@ -0,0 +1,55 @@
+package net.akrain.fdmap.benchmarks
+
+import java.util.concurrent.TimeUnit
+import net.akrain.fdmap.Map as FdMap
+import net.akrain.fdmap.Set as FdSet
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+// Set operations on two independently built sets of 100k elements,
+// which share half of the elements, compared to the same operations on
+// maps emulating sets with Boolean.TRUE values.
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class SetOperations100000 {
+
+    private var set1 = FdSet.blank()
+    private var set2 = FdSet.blank()
+    private var map1 = FdMap.blank()
+    private var map2 = FdMap.blank()
+
+    @Setup(Level.Trial)
+    fun setup() {
+        for (i in 0 until 100000) {
+            set1 = set1.conj(i)
+            set2 = set2.conj(i + 50000)
+            map1 = map1.assoc(i, true)
+            map2 = map2.assoc(i + 50000, true)
+        }
+    }
+
+    @Benchmark
+    fun setDifference(): Any = set1.difference(set2)
+
+    @Benchmark
+    fun mapDifference(): Any = map1.difference(map2)
+
+    @Benchmark
+    fun setIntersection(): Any = set1.intersection(set2)
+
+    @Benchmark
+    fun mapIntersection(): Any = map1.intersection(map2)
+
+    @Benchmark
+    fun setUnion(): Any = set1.union(set2)
+
+    @Benchmark
+    fun mapUnion(): Any = map1.union(map2)
+
+    @Benchmark
+    fun setIsSubset(): Boolean = set1.isSubsetOf(set2)
+}
@@ -0,0 +1,65 @@
+package net.akrain.fdmap.benchmarks
+
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.TimeUnit
+import net.akrain.fdmap.Codec
+import net.akrain.fdmap.Map as FdMap
+import net.akrain.fdmap.MappedMap
+import net.akrain.fdmap.Snapshot
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+
+// Getting the first value out of a snapshot of a 1M-entry map: after
+// reading the whole snapshot, and after mapping it into memory
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class Snapshot1000000 {
+
+    private var file = Path.of("")
+    private var key = 0L
+
+    @Setup(Level.Trial)
+    fun setup() {
+        val random = java.util.Random(42)
+        val transient = FdMap.blank().asTransient()
+        for (i in 0 until 1000000) {
+            key = random.nextLong()
+            transient.assoc(key, key)
+        }
+        file = Files.createTempFile("fdmap", ".snapshot")
+        FileChannel.open(file, StandardOpenOption.WRITE).use {
+            Snapshot.write(transient.persistent(), it, Codec.LONG, Codec.LONG)
+        }
+    }
+
+    @TearDown(Level.Trial)
+    fun tearDown() {
+        Files.delete(file)
+    }
+
+    @Benchmark
+    fun read(): Any? {
+        FileChannel.open(file).use {
+            return Snapshot.read(
+                it, Codec.LONG, Codec.LONG, FdMap.blank().keyHasher)
+                .get(key)
+        }
+    }
+
+    @Benchmark
+    fun mapped(): Any? {
+        FileChannel.open(file).use {
+            return MappedMap.open(
+                it, Codec.LONG, Codec.LONG, FdMap.blank().keyHasher)
+                .get(key)
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package net.akrain.fdmap.benchmarks
+
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+import net.akrain.fdmap.Map as FdMap
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+// Merges two versions of a 1M-entry map, each of which has
+// 1000 entries assoc'ed on top of the common base.
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class Union1000000 {
+
+    private var map1 = FdMap.blank()
+    private var map2 = FdMap.blank()
+
+    @Setup(Level.Trial)
+    fun setup() {
+        val transient = FdMap.blank().asTransient()
+        for (i in 0 until 1000000)
+            transient.assoc(i, i)
+        val base = transient.persistent()
+        map1 = base
+        map2 = base
+        for (i in 0 until 1000) {
+            map1 = map1.assoc(Random.nextInt(), i)
+            map2 = map2.assoc(Random.nextInt(), i)
+        }
+    }
+
+    @Benchmark
+    fun union(): FdMap {
+        return map1.union(map2)
+    }
+
+    @Benchmark
+    fun assocAll(): FdMap {
+        var result = map1
+        for (entry in map2.iterator())
+            result = result.assoc(entry.key, entry.value)
+        return result
+    }
+}
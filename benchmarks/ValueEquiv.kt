@@ -0,0 +1,57 @@
+package net.akrain.fdmap.benchmarks
+
+import java.util.concurrent.TimeUnit
+import net.akrain.fdmap.Map as FdMap
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+// Difference of two independently built 100k-entry maps (so they share
+// no nodes), whose values are 100-element lists. The maps share the
+// value objects, except for 1% of the keys, which are mapped to new
+// lists. Values are compared with equals() or by identity.
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class ValueEquiv100000 {
+
+    private var equalsMap1 = FdMap.blank()
+    private var equalsMap2 = FdMap.blank()
+    private var identityMap1 = FdMap.blank()
+    private var identityMap2 = FdMap.blank()
+
+    @Setup(Level.Trial)
+    fun setup() {
+        val identityBlank =
+            FdMap.blank(FdMap.blank().keyHasher, FdMap.VALUE_IDENTITY)
+        val equals1 = FdMap.blank().asTransient()
+        val equals2 = FdMap.blank().asTransient()
+        val identity1 = identityBlank.asTransient()
+        val identity2 = identityBlank.asTransient()
+        for (i in 0 until 100000) {
+            val value = ArrayList((i until i + 100).toList())
+            val otherValue =
+                if (i % 100 == 0) ArrayList((0 until 100).toList()) else value
+            equals1.assoc(i, value)
+            equals2.assoc(i, otherValue)
+            identity1.assoc(i, value)
+            identity2.assoc(i, otherValue)
+        }
+        equalsMap1 = equals1.persistent()
+        equalsMap2 = equals2.persistent()
+        identityMap1 = identity1.persistent()
+        identityMap2 = identity2.persistent()
+    }
+
+    @Benchmark
+    fun differenceEquals(): FdMap {
+        return equalsMap1.difference(equalsMap2)
+    }
+
+    @Benchmark
+    fun differenceIdentity(): FdMap {
+        return identityMap1.difference(identityMap2)
+    }
+}
@@ -0,0 +1,175 @@
+package net.akrain.fdmap;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiPredicate;
+import java.util.function.ToIntFunction;
+
+// Registry of canonical blank maps, one per pair of key-hasher and value
+// equivalence. Lookups don't take locks. Neither the functions, nor the
+// blank maps are kept alive by the registry: the blank map refers to its
+// functions, so it's referenced weakly too. As long as a blank map is
+// reachable, it's returned for its functions, so no two distinct blank
+// maps with the same functions can be observed at the same time.
+final class BlankMaps {
+
+    private static final ConcurrentHashMap<Key,WeakReference<Map>>
+        MAPS = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<Object>
+        QUEUE = new ReferenceQueue<>();
+
+    private BlankMaps() {
+    }
+
+    static Map get(
+            final ToIntFunction<Object> hasher,
+            final BiPredicate<Object,Object> valueEquiv) {
+        final LookupKey lookupKey = new LookupKey(hasher, valueEquiv);
+        final WeakReference<Map> ref = MAPS.get(lookupKey);
+        if (ref != null) {
+            final Map map = ref.get();
+            if (map != null) {
+                return map;
+            }
+        }
+        return register(lookupKey, hasher, valueEquiv);
+    }
+
+    private static Map register(
+            final LookupKey lookupKey,
+            final ToIntFunction<Object> hasher,
+            final BiPredicate<Object,Object> valueEquiv) {
+        expungeStaleEntries();
+        final Map newMap = new Map(null, hasher, valueEquiv);
+        final WeakReference<Map> newRef = new WeakReference<>(newMap);
+        while (true) {
+            final WeakReference<Map> ref = MAPS.get(lookupKey);
+            if (ref == null) {
+                final WeakKey key = new WeakKey(hasher, valueEquiv);
+                if (MAPS.putIfAbsent(key, newRef) == null) {
+                    return newMap;
+                }
+            } else {
+                final Map map = ref.get();
+                if (map != null) {
+                    // Another thread has registered its map first
+                    return map;
+                } else if (MAPS.replace(lookupKey, ref, newRef)) {
+                    // The previous blank map has been collected
+                    return newMap;
+                }
+            }
+        }
+    }
+
+    private static void expungeStaleEntries() {
+        Reference<?> ref;
+        while ((ref = QUEUE.poll()) != null) {
+            MAPS.remove(((KeyReference) ref).key);
+        }
+    }
+
+    // Number of registered blank maps, some of which may have been
+    // collected already
+    static int size() {
+        expungeStaleEntries();
+        return MAPS.size();
+    }
+
+    // Keys are equal, when they refer to the same functions
+    private abstract static class Key {
+
+        private final int hash;
+
+        Key(final Object hasher, final Object valueEquiv) {
+            this.hash = System.identityHashCode(hasher) * 31
+                + System.identityHashCode(valueEquiv);
+        }
+
+        abstract Object hasher();
+
+        abstract Object valueEquiv();
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object otherObj) {
+            if (otherObj == this) {
+                return true;
+            } else if (otherObj instanceof Key) {
+                final Key other = (Key) otherObj;
+                final Object hasher = hasher();
+                final Object valueEquiv = valueEquiv();
+                return hasher != null
+                    && valueEquiv != null
+                    && hasher == other.hasher()
+                    && valueEquiv == other.valueEquiv();
+            } else {
+                return false;
+            }
+        }
+    }
+
+    // Used for lookups only, so it can refer to the functions strongly
+    private static final class LookupKey extends Key {
+
+        private final Object hasher;
+        private final Object valueEquiv;
+
+        LookupKey(final Object hasher, final Object valueEquiv) {
+            super(hasher, valueEquiv);
+            this.hasher = hasher;
+            this.valueEquiv = valueEquiv;
+        }
+
+        @Override
+        Object hasher() {
+            return hasher;
+        }
+
+        @Override
+        Object valueEquiv() {
+            return valueEquiv;
+        }
+    }
+
+    // Stored in the registry. Once either function is collected, the key
+    // can't be equal to any other key, and it is removed on the next
+    // registration.
+    private static final class WeakKey extends Key {
+
+        private final KeyReference hasher;
+        private final KeyReference valueEquiv;
+
+        WeakKey(final Object hasher, final Object valueEquiv) {
+            super(hasher, valueEquiv);
+            this.hasher = new KeyReference(hasher, this);
+            this.valueEquiv = new KeyReference(valueEquiv, this);
+        }
+
+        @Override
+        Object hasher() {
+            return hasher.get();
+        }
+
+        @Override
+        Object valueEquiv() {
+            return valueEquiv.get();
+        }
+    }
+
+    private static final class KeyReference extends WeakReference<Object> {
+
+        final WeakKey key;
+
+        KeyReference(final Object referent, final WeakKey key) {
+            super(referent, QUEUE);
+            this.key = key;
+        }
+    }
+}
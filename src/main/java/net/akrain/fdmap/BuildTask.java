@@ -0,0 +1,103 @@
+package net.akrain.fdmap;
+
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiPredicate;
+
+// Builds the trie of the entries, the same as Nodes.fromSortedByHash()
+// would build from the sorted entries. The entries are distributed by
+// their slots in the root, the subtree of every slot is sorted and built
+// in parallel with the others, then the root is assembled of them.
+class BuildTask extends RecursiveTask<Object> {
+
+    private final Nodes.Entry[] entries;
+    private final int from;
+    private final int to;
+    private final int shift;
+    private final BiPredicate<Object,Object> valueEquiv;
+
+    BuildTask(
+            final Nodes.Entry[] entries,
+            final BiPredicate<Object,Object> valueEquiv) {
+        this(entries, 0, entries.length, 0, valueEquiv);
+    }
+
+    private BuildTask(
+            final Nodes.Entry[] entries,
+            final int from,
+            final int to,
+            final int shift,
+            final BiPredicate<Object,Object> valueEquiv) {
+        this.entries = entries;
+        this.from = from;
+        this.to = to;
+        this.shift = shift;
+        this.valueEquiv = valueEquiv;
+    }
+
+    @Override
+    protected Object compute() {
+        if (from == to) {
+            return null;
+        } else if (shift == 0) {
+            return buildRoot();
+        } else {
+            Nodes.sortByHash(entries, from, to, false);
+            return Nodes.fromSortedByHash(
+                entries, from, to, shift, valueEquiv);
+        }
+    }
+
+    private Object buildRoot() {
+        // Counting sort by the slots, which keeps the order of the
+        // entries within every slot
+        final int[] slotStarts = new int[33];
+        for (Nodes.Entry entry: entries) {
+            ++ slotStarts[Nodes.arrayIndex(0, entry.keyHash) + 1];
+        }
+        for (int slot = 0; slot < 32; ++ slot) {
+            slotStarts[slot + 1] += slotStarts[slot];
+        }
+        final int[] positions = slotStarts.clone();
+        final Nodes.Entry[] slotEntries = new Nodes.Entry[entries.length];
+        for (Nodes.Entry entry: entries) {
+            final int slot = Nodes.arrayIndex(0, entry.keyHash);
+            slotEntries[positions[slot]] = entry;
+            ++ positions[slot];
+        }
+
+        final BuildTask[] tasks = new BuildTask[32];
+        int childrenCount = 0;
+        int bitmap = 0;
+        for (int slot = 0; slot < 32; ++ slot) {
+            if (slotStarts[slot] != slotStarts[slot + 1]) {
+                tasks[childrenCount] = new BuildTask(
+                    slotEntries,
+                    slotStarts[slot],
+                    slotStarts[slot + 1],
+                    5,
+                    valueEquiv);
+                ++ childrenCount;
+                bitmap |= 1 << slot;
+            }
+        }
+        for (int i = 1; i < childrenCount; ++ i) {
+            tasks[i].fork();
+        }
+
+        final Object[] children = new Object[childrenCount];
+        int entryCount = 0;
+        int hash = 0;
+        for (int i = 0; i < childrenCount; ++ i) {
+            children[i] = i == 0 ? tasks[i].compute() : tasks[i].join();
+            entryCount += Nodes.countEntries(children[i]);
+            hash += Nodes.hashEntries(children[i]);
+        }
+        if (childrenCount == 1
+            && children[0].getClass() != Nodes.ArrayNode.class) {
+            // All the entries have the same key hash
+            return children[0];
+        } else {
+            return new Nodes.ArrayNode(bitmap, children, entryCount, hash);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package net.akrain.fdmap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+// Writes the keys or the values of the entries to a Snapshot, and reads
+// them back. read() must consume exactly the bytes written by write().
+public interface Codec {
+
+    void write(Object obj, DataOutput out) throws IOException;
+
+    Object read(DataInput in) throws IOException;
+
+    // Strings of any length in UTF-8, null included
+    Codec STRING = new Codec() {
+        @Override
+        public void write(final Object obj, final DataOutput out)
+                throws IOException {
+            if (obj == null) {
+                out.writeInt(-1);
+            } else {
+                final byte[] bytes =
+                    ((String) obj).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        @Override
+        public Object read(final DataInput in) throws IOException {
+            final int length = in.readInt();
+            if (length == -1) {
+                return null;
+            } else {
+                final byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+    };
+
+    // Non-null Integers
+    Codec INTEGER = new Codec() {
+        @Override
+        public void write(final Object obj, final DataOutput out)
+                throws IOException {
+            out.writeInt((Integer) obj);
+        }
+
+        @Override
+        public Object read(final DataInput in) throws IOException {
+            return in.readInt();
+        }
+    };
+
+    // Non-null Longs
+    Codec LONG = new Codec() {
+        @Override
+        public void write(final Object obj, final DataOutput out)
+                throws IOException {
+            out.writeLong((Long) obj);
+        }
+
+        @Override
+        public Object read(final DataInput in) throws IOException {
+            return in.readLong();
+        }
+    };
+}
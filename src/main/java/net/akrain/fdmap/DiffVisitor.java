@@ -0,0 +1,15 @@
+package net.akrain.fdmap;
+
+// Receives changes found by Map.diff(), which turn the old map into
+// the new one.
+public interface DiffVisitor {
+
+    // The key is present only in the new map
+    void added(Object key, Object value);
+
+    // The key is present only in the old map
+    void removed(Object key, Object value);
+
+    // The key is present in both maps, but mapped to different values
+    void changed(Object key, Object oldValue, Object newValue);
+}
@@ -0,0 +1,97 @@
+package net.akrain.fdmap;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// Walks the entries in the same order as Seq does, but instead of
+// descending from the root for every entry, it keeps the path to
+// the current entry on an explicit stack.
+public class EntryIterator implements Iterator<Nodes.Entry> {
+
+    // ArrayNodes occupy at most 7 levels (shifts 0, 5, ..., 30),
+    // plus one level for a CollisionNode under the deepest ArrayNode.
+    private static final int MAX_DEPTH = 8;
+
+    private final Object[] nodes = new Object[MAX_DEPTH];
+    private final int[] indices = new int[MAX_DEPTH];
+    private int depth;
+    private Nodes.Entry nextEntry;
+    private int nextEntryIndex;
+    private int entryIndex;
+
+    public EntryIterator(final Object root) {
+        if (root == null) {
+            depth = -1;
+            nextEntry = null;
+        } else if (root.getClass() == Nodes.Entry.class) {
+            depth = -1;
+            nextEntry = (Nodes.Entry) root;
+        } else {
+            depth = 0;
+            nodes[0] = root;
+            indices[0] = 0;
+            nextEntry = advance();
+        }
+    }
+
+    private Nodes.Entry advance() {
+        while (depth >= 0) {
+            final Object node = nodes[depth];
+            final int index = indices[depth];
+            if (node.getClass() == Nodes.ArrayNode.class) {
+                final Object[] children = ((Nodes.ArrayNode) node).children;
+                if (index < children.length) {
+                    indices[depth] = index + 1;
+                    final Object child = children[index];
+                    if (child.getClass() == Nodes.Entry.class) {
+                        nextEntryIndex = 0;
+                        return (Nodes.Entry) child;
+                    } else {
+                        depth += 1;
+                        nodes[depth] = child;
+                        indices[depth] = 0;
+                    }
+                } else {
+                    nodes[depth] = null;
+                    depth -= 1;
+                }
+            } else if (node.getClass() == Nodes.CollisionNode.class) {
+                final Nodes.CollisionNode collisionNode =
+                    (Nodes.CollisionNode) node;
+                if (index < collisionNode.children.length) {
+                    indices[depth] = index + 1;
+                    nextEntryIndex = index;
+                    return collisionNode.children[index];
+                } else {
+                    nodes[depth] = null;
+                    depth -= 1;
+                }
+            } else {
+                throw new RuntimeException("Unexpected type of node");
+            }
+        }
+        return null;
+    }
+
+    // Index of the entry returned by the last call to next() within
+    // its CollisionNode, or 0 if the entry isn't part of a CollisionNode.
+    public int entryIndex() {
+        return entryIndex;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return nextEntry != null;
+    }
+
+    @Override
+    public Nodes.Entry next() {
+        final Nodes.Entry entry = nextEntry;
+        if (entry == null) {
+            throw new NoSuchElementException();
+        }
+        entryIndex = nextEntryIndex;
+        nextEntry = advance();
+        return entry;
+    }
+}
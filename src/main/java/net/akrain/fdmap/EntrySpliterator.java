@@ -0,0 +1,115 @@
+package net.akrain.fdmap;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+// Covers a range of sibling nodes. Splitting halves the range; a range
+// of a single ArrayNode is replaced by the range of its children, first.
+public class EntrySpliterator implements Spliterator<Nodes.Entry> {
+
+    private Object[] nodes;
+    private int from;
+    private int to;
+    private long size;
+    private EntryIterator current;
+
+    public EntrySpliterator(final Object root) {
+        if (root == null) {
+            this.nodes = new Object[0];
+            this.to = 0;
+            this.size = 0;
+        } else {
+            this.nodes = new Object[] { root };
+            this.to = 1;
+            this.size = Nodes.countEntries(root);
+        }
+        this.from = 0;
+    }
+
+    private EntrySpliterator(
+            final Object[] nodes,
+            final int from,
+            final int to,
+            final long size) {
+        this.nodes = nodes;
+        this.from = from;
+        this.to = to;
+        this.size = size;
+    }
+
+    @Override
+    public EntrySpliterator trySplit() {
+        if (current != null) {
+            // Don't split a range, which is already being traversed
+            return null;
+        }
+        if (to - from == 1
+            && nodes[from].getClass() == Nodes.ArrayNode.class) {
+            nodes = ((Nodes.ArrayNode) nodes[from]).children;
+            from = 0;
+            to = nodes.length;
+        }
+        final int count = to - from;
+        if (count < 2) {
+            return null;
+        } else {
+            final int middle = from + count / 2;
+            long prefixSize = 0;
+            for (int i = from; i < middle; ++ i) {
+                prefixSize += Nodes.countEntries(nodes[i]);
+            }
+            final EntrySpliterator prefix =
+                new EntrySpliterator(nodes, from, middle, prefixSize);
+            from = middle;
+            size -= prefixSize;
+            return prefix;
+        }
+    }
+
+    @Override
+    public boolean tryAdvance(final Consumer<? super Nodes.Entry> action) {
+        while (current == null || !current.hasNext()) {
+            if (from >= to) {
+                current = null;
+                return false;
+            }
+            current = new EntryIterator(nodes[from]);
+            from += 1;
+        }
+        size -= 1;
+        action.accept(current.next());
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(final Consumer<? super Nodes.Entry> action) {
+        if (current != null) {
+            while (current.hasNext()) {
+                action.accept(current.next());
+            }
+            current = null;
+        }
+        for (; from < to; ++ from) {
+            final EntryIterator it = new EntryIterator(nodes[from]);
+            while (it.hasNext()) {
+                action.accept(it.next());
+            }
+        }
+        size = 0;
+    }
+
+    @Override
+    public long estimateSize() {
+        return size;
+    }
+
+    @Override
+    public long getExactSizeIfKnown() {
+        return size;
+    }
+
+    @Override
+    public int characteristics() {
+        return SIZED | SUBSIZED | IMMUTABLE | NONNULL | DISTINCT;
+    }
+}
@@ -0,0 +1,91 @@
+package net.akrain.fdmap;
+
+import clojure.lang.IDeref;
+import clojure.lang.IFn;
+import clojure.lang.RT;
+import java.util.concurrent.RecursiveTask;
+
+// Folds a range of sibling nodes. Ranges of more than n entries are
+// split in halves, which are folded in parallel and merged with
+// combinef; a range of a single ArrayNode is replaced by the range of
+// its children, first. Smaller ranges are reduced sequentially.
+class FoldTask extends RecursiveTask<Object> {
+
+    private final Object[] nodes;
+    private final int from;
+    private final int to;
+    private final long size;
+    private final long n;
+    private final IFn combinef;
+    private final IFn reducef;
+
+    FoldTask(
+            final Object root,
+            final long n,
+            final IFn combinef,
+            final IFn reducef) {
+        this(new Object[] { root }, 0, 1, Nodes.countEntries(root),
+            n, combinef, reducef);
+    }
+
+    private FoldTask(
+            final Object[] nodes,
+            final int from,
+            final int to,
+            final long size,
+            final long n,
+            final IFn combinef,
+            final IFn reducef) {
+        this.nodes = nodes;
+        this.from = from;
+        this.to = to;
+        this.size = size;
+        this.n = n;
+        this.combinef = combinef;
+        this.reducef = reducef;
+    }
+
+    @Override
+    protected Object compute() {
+        if (size <= n) {
+            return reduce();
+        } else if (to - from > 1) {
+            final int middle = from + (to - from) / 2;
+            long leftSize = 0;
+            for (int i = from; i < middle; ++ i) {
+                leftSize += Nodes.countEntries(nodes[i]);
+            }
+            final FoldTask right = new FoldTask(
+                nodes, middle, to, size - leftSize, n, combinef, reducef);
+            right.fork();
+            final Object leftResult = new FoldTask(
+                nodes, from, middle, leftSize, n, combinef, reducef)
+                .compute();
+            return combinef.invoke(leftResult, right.join());
+        } else {
+            final Object node = nodes[from];
+            if (node.getClass() == Nodes.ArrayNode.class) {
+                final Object[] children = ((Nodes.ArrayNode) node).children;
+                return new FoldTask(
+                    children, 0, children.length, size, n, combinef, reducef)
+                    .compute();
+            } else {
+                // A CollisionNode can't be split
+                return reduce();
+            }
+        }
+    }
+
+    private Object reduce() {
+        Object result = combinef.invoke();
+        for (int i = from; i < to; ++ i) {
+            result = Nodes.kvreduce(nodes[i], reducef, result);
+            if (RT.isReduced(result)) {
+                // Like clojure.core.reducers/fold, a reduced value
+                // only terminates the reduction of the current chunk
+                return ((IDeref) result).deref();
+            }
+        }
+        return result;
+    }
+}
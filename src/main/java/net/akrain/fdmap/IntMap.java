@@ -0,0 +1,82 @@
+package net.akrain.fdmap;
+
+import java.util.function.IntUnaryOperator;
+
+// Persistent map with primitive int keys. It shares the nodes of LongMap:
+// keys are widened to long when stored, and narrowed back when visited.
+public class IntMap extends LongKeyMap<IntMap> {
+
+    public interface EntryVisitor {
+        void visit(int key, Object value);
+    }
+
+    public final IntUnaryOperator keyHasher;
+
+    private static final IntUnaryOperator
+        DEFAULT_KEY_HASHER = key -> Integer.hashCode(key);
+    private static final IntMap BLANK = new IntMap(null, DEFAULT_KEY_HASHER);
+
+    public static IntMap blank() {
+        return BLANK;
+    }
+
+    public static IntMap blank(final IntUnaryOperator hasher) {
+        if (hasher == DEFAULT_KEY_HASHER) {
+            return BLANK;
+        } else {
+            return new IntMap(null, hasher);
+        }
+    }
+
+    IntMap(final Object root, final IntUnaryOperator hasher) {
+        super(root);
+        if (hasher == null) {
+            throw new IllegalArgumentException(
+                "Key-hasher isn't allowed to be null");
+        }
+        this.keyHasher = hasher;
+    }
+
+    @Override
+    int hashKey(final long key) {
+        return keyHasher.applyAsInt((int) key);
+    }
+
+    @Override
+    IntMap withRoot(final Object newRoot) {
+        if (newRoot == null) {
+            return blank(keyHasher);
+        } else {
+            return new IntMap(newRoot, keyHasher);
+        }
+    }
+
+    @Override
+    boolean sameKeyHasher(final IntMap other) {
+        return keyHasher == other.keyHasher;
+    }
+
+    public IntMap assoc(final int key, final Object value) {
+        return assocKey(key, value);
+    }
+
+    public Object get(final int key) {
+        return getKey(key, null);
+    }
+
+    public Object get(final int key, final Object notFound) {
+        return getKey(key, notFound);
+    }
+
+    public boolean containsKey(final int key) {
+        return getKey(key, this) != this;
+    }
+
+    public IntMap dissoc(final int key) {
+        return dissocKey(key);
+    }
+
+    public void forEach(final EntryVisitor visitor) {
+        forEachKey((key, value) -> visitor.visit((int) key, value));
+    }
+}
@@ -0,0 +1,135 @@
+package net.akrain.fdmap;
+
+import java.util.Objects;
+
+// Implementation shared by LongMap and IntMap, which keep their keys in
+// the nodes of LongNodes (IntMap widens its keys to long). M is the class
+// of the map itself, so that the operations return maps of that class.
+abstract class LongKeyMap<M extends LongKeyMap<M>> {
+
+    public final Object root;
+
+    LongKeyMap(final Object root) {
+        this.root = root;
+    }
+
+    // Hash of a key, calculated by the key-hasher of the map
+    abstract int hashKey(long key);
+
+    // Map with the same key-hasher and the given root, which is the blank
+    // map, if the root is null
+    abstract M withRoot(Object root);
+
+    abstract boolean sameKeyHasher(M other);
+
+    @SuppressWarnings("unchecked")
+    private M self() {
+        return (M) this;
+    }
+
+    private M derive(final Object newRoot) {
+        if (newRoot == root) {
+            return self();
+        } else {
+            return withRoot(newRoot);
+        }
+    }
+
+    final M assocKey(final long key, final Object value) {
+        final LongNodes.Entry entry =
+            new LongNodes.Entry(hashKey(key), key, value);
+        if (root == null) {
+            return withRoot(entry);
+        } else {
+            return derive(LongNodes.assoc(root, 0, entry));
+        }
+    }
+
+    final Object getKey(final long key, final Object notFound) {
+        return LongNodes.get(root, 0, hashKey(key), key, notFound);
+    }
+
+    final M dissocKey(final long key) {
+        if (root == null) {
+            return self();
+        } else {
+            return derive(LongNodes.dissoc(root, 0, hashKey(key), key));
+        }
+    }
+
+    final void forEachKey(final LongNodes.EntryVisitor visitor) {
+        if (root != null) {
+            LongNodes.forEach(root, visitor);
+        }
+    }
+
+    public int count() {
+        if (root == null) {
+            return 0;
+        } else {
+            return LongNodes.countEntries(root);
+        }
+    }
+
+    public M difference(final M other) {
+        ensureSameKeyHasher(other, "difference");
+        return derive(LongNodes.difference(0, root, other.root));
+    }
+
+    public M intersection(final M other) {
+        ensureSameKeyHasher(other, "intersection");
+        final Object newRoot = LongNodes.intersection(0, root, other.root);
+        if (newRoot == other.root && newRoot != root) {
+            return other;
+        } else {
+            return derive(newRoot);
+        }
+    }
+
+    public boolean equiv(final M other) {
+        if (sameKeyHasher(other)) {
+            return LongNodes.equiv(0, root, other.root);
+        } else if (other.count() != count()) {
+            return false;
+        } else {
+            final boolean[] equal = { true };
+            forEachKey((key, value) -> {
+                if (equal[0]) {
+                    final Object otherValue = other.getKey(key, other);
+                    equal[0] = otherValue != other
+                        && Objects.equals(value, otherValue);
+                }
+            });
+            return equal[0];
+        }
+    }
+
+    private void ensureSameKeyHasher(
+            final M other,
+            final String operation) {
+        if (!sameKeyHasher(other)) {
+            throw new UnsupportedOperationException(
+                "Can't calculated " + operation + " of maps that were " +
+                "built with different key-hashers");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean equals(final Object otherObj) {
+        return otherObj != null
+            && otherObj.getClass() == getClass()
+            && equiv((M) otherObj);
+    }
+
+    // Sum of hashes of the entries, where the hash of an entry is
+    // Long.hashCode(key) ^ Objects.hashCode(value) of the widened key
+    @Override
+    public int hashCode() {
+        if (root == null) {
+            return 0;
+        } else {
+            return LongNodes.hashEntries(root);
+        }
+    }
+}
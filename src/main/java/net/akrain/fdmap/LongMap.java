@@ -0,0 +1,78 @@
+package net.akrain.fdmap;
+
+import java.util.function.LongToIntFunction;
+
+// Persistent map with primitive long keys. Keys are neither boxed, nor
+// compared with equals(), so lookups don't allocate anything.
+public class LongMap extends LongKeyMap<LongMap> {
+
+    public final LongToIntFunction keyHasher;
+
+    private static final LongToIntFunction
+        DEFAULT_KEY_HASHER = key -> Long.hashCode(key);
+    private static final LongMap BLANK = new LongMap(null, DEFAULT_KEY_HASHER);
+
+    public static LongMap blank() {
+        return BLANK;
+    }
+
+    public static LongMap blank(final LongToIntFunction hasher) {
+        if (hasher == DEFAULT_KEY_HASHER) {
+            return BLANK;
+        } else {
+            return new LongMap(null, hasher);
+        }
+    }
+
+    LongMap(final Object root, final LongToIntFunction hasher) {
+        super(root);
+        if (hasher == null) {
+            throw new IllegalArgumentException(
+                "Key-hasher isn't allowed to be null");
+        }
+        this.keyHasher = hasher;
+    }
+
+    @Override
+    int hashKey(final long key) {
+        return keyHasher.applyAsInt(key);
+    }
+
+    @Override
+    LongMap withRoot(final Object newRoot) {
+        if (newRoot == null) {
+            return blank(keyHasher);
+        } else {
+            return new LongMap(newRoot, keyHasher);
+        }
+    }
+
+    @Override
+    boolean sameKeyHasher(final LongMap other) {
+        return keyHasher == other.keyHasher;
+    }
+
+    public LongMap assoc(final long key, final Object value) {
+        return assocKey(key, value);
+    }
+
+    public Object get(final long key) {
+        return getKey(key, null);
+    }
+
+    public Object get(final long key, final Object notFound) {
+        return getKey(key, notFound);
+    }
+
+    public boolean containsKey(final long key) {
+        return getKey(key, this) != this;
+    }
+
+    public LongMap dissoc(final long key) {
+        return dissocKey(key);
+    }
+
+    public void forEach(final LongNodes.EntryVisitor visitor) {
+        forEachKey(visitor);
+    }
+}
@@ -0,0 +1,712 @@
+package net.akrain.fdmap;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+// Same trie as the one built by Nodes, but with primitive long keys.
+// The nodes have classes of their own, so that leaves with long keys
+// never end up under a Nodes.ArrayNode. They use the same bit helpers,
+// and keep entryCount and hash sums the same way as the nodes of Nodes.
+//
+// The algorithms mirror those of Nodes (assoc, dissoc, equiv,
+// difference, intersection and replaceChildren), instead of sharing
+// them. Nodes dispatches on the exact classes of its nodes and compares
+// keys with Objects.equals(), so sharing the algorithms would mean an
+// interface call per leaf operation on every Map as well. A change to
+// any of them in Nodes has to be made here too.
+public class LongNodes {
+
+    // Base class of the nodes of the trie. As in Nodes, each class of
+    // nodes implements the operations on a single node itself, while
+    // the operations on two nodes at once stay static. The constructor
+    // is package-private, so Entry, ArrayNode and CollisionNode are the
+    // only classes of nodes.
+    public abstract static class Node {
+
+        Node() {
+        }
+
+        // Returns the value mapped to the key, or `notFound`
+        abstract Object get(
+            int shift,
+            int keyHash,
+            long key,
+            Object notFound);
+
+        // Returns the node itself, if it already maps the key to an equal
+        // value
+        abstract Node assoc(int shift, Entry entry);
+
+        abstract Node dissoc(int shift, int keyHash, long key);
+
+        abstract int countEntries();
+
+        // Sum of hashCode() of all the entries under the node
+        abstract int hashEntries();
+
+        abstract void forEach(EntryVisitor visitor);
+
+        // Key hash of the entries of an Entry or a CollisionNode
+        abstract int getKeyHash();
+    }
+
+    public static class Entry extends Node {
+        public final int keyHash;
+        public final long key;
+        public final Object value;
+
+        public Entry(
+                final int keyHash,
+                final long key,
+                final Object value) {
+            this.keyHash = keyHash;
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        Object get(
+                final int shift,
+                final int keyHash,
+                final long key,
+                final Object notFound) {
+            if (this.key == key) {
+                return value;
+            } else {
+                return notFound;
+            }
+        }
+
+        @Override
+        Node assoc(final int shift, final Entry entry) {
+            if (key == entry.key) {
+                if (Objects.equals(value, entry.value)) {
+                    return this;
+                } else {
+                    return entry;
+                }
+            } else if (keyHash == entry.keyHash) {
+                return new CollisionNode(
+                    keyHash,
+                    new long[] { key, entry.key },
+                    new Object[] { value, entry.value });
+            } else {
+                return makeArrayNode(this, shift).assoc(shift, entry);
+            }
+        }
+
+        @Override
+        Node dissoc(final int shift, final int keyHash, final long key) {
+            if (this.key == key) {
+                return null;
+            } else {
+                return this;
+            }
+        }
+
+        @Override
+        int countEntries() {
+            return 1;
+        }
+
+        @Override
+        int hashEntries() {
+            return hashCode();
+        }
+
+        @Override
+        void forEach(final EntryVisitor visitor) {
+            visitor.visit(key, value);
+        }
+
+        @Override
+        int getKeyHash() {
+            return keyHash;
+        }
+
+        @Override
+        public boolean equals(Object otherObj) {
+            if (otherObj instanceof Entry) {
+                final Entry other = (Entry) otherObj;
+                return this.key == other.key
+                    && Objects.equals(this.value, other.value);
+            } else {
+                return false;
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        public String toString() {
+            return String.format("<%s %s>", key, value);
+        }
+    }
+
+    public static class ArrayNode extends Node {
+        // Bit N is set when the N-th slot of the node is occupied.
+        // Children of the occupied slots are stored compactly, in order
+        // of their slot numbers.
+        public final int bitmap;
+        public final Object[] children;
+        public final int entryCount;
+        // Sum of hashCode() of all the entries under the node
+        public final int hash;
+
+        public ArrayNode(
+                final int bitmap,
+                final Object[] children,
+                final int entryCount,
+                final int hash) {
+            this.bitmap = bitmap;
+            this.children = children;
+            this.entryCount = entryCount;
+            this.hash = hash;
+        }
+
+        @Override
+        Object get(
+                final int shift,
+                final int keyHash,
+                final long key,
+                final Object notFound) {
+            final int bit = Nodes.bitpos(shift, keyHash);
+            if ((bitmap & bit) == 0) {
+                return notFound;
+            } else {
+                final Node child =
+                    (Node) children[Nodes.childIndex(bitmap, bit)];
+                return child.get(shift + 5, keyHash, key, notFound);
+            }
+        }
+
+        @Override
+        Node assoc(final int shift, final Entry entry) {
+            final int bit = Nodes.bitpos(shift, entry.keyHash);
+            final int childIndex = Nodes.childIndex(bitmap, bit);
+            if ((bitmap & bit) == 0) {
+                return new ArrayNode(
+                    bitmap | bit,
+                    Nodes.insertChild(children, childIndex, entry),
+                    entryCount + 1,
+                    hash + entry.hashCode());
+            } else {
+                final Node child = (Node) children[childIndex];
+                final Node newChild = child.assoc(shift + 5, entry);
+                if (child == newChild) {
+                    return this;
+                } else {
+                    final Object[] newChildren = children.clone();
+                    newChildren[childIndex] = newChild;
+                    return new ArrayNode(
+                        bitmap,
+                        newChildren,
+                        entryCount
+                            + newChild.countEntries()
+                            - child.countEntries(),
+                        hash
+                            + newChild.hashEntries()
+                            - child.hashEntries());
+                }
+            }
+        }
+
+        @Override
+        Node dissoc(final int shift, final int keyHash, final long key) {
+            final int bit = Nodes.bitpos(shift, keyHash);
+            if ((bitmap & bit) == 0) {
+                return this;
+            } else {
+                final int childIndex = Nodes.childIndex(bitmap, bit);
+                final Node child = (Node) children[childIndex];
+                final Node newChild = child.dissoc(shift + 5, keyHash, key);
+                // If only one child left and it is not an ArrayNode,
+                // we should return this child, instead.
+                if (child == newChild) {
+                    return this;
+                } else if (newChild == null) {
+                    final Node otherChild = children.length == 2
+                        ? (Node) children[1 - childIndex]
+                        : null;
+                    if (otherChild != null
+                        && otherChild.getClass() != ArrayNode.class) {
+                        return otherChild;
+                    } else {
+                        return new ArrayNode(
+                            bitmap ^ bit,
+                            Nodes.removeChild(children, childIndex),
+                            entryCount - 1,
+                            hash - child.hashEntries());
+                    }
+                } else if (children.length == 1
+                           && newChild.getClass() != ArrayNode.class) {
+                    return newChild;
+                } else {
+                    final Object[] newChildren = children.clone();
+                    newChildren[childIndex] = newChild;
+                    return new ArrayNode(
+                        bitmap,
+                        newChildren,
+                        entryCount - 1,
+                        hash - child.hashEntries() + newChild.hashEntries());
+                }
+            }
+        }
+
+        @Override
+        int countEntries() {
+            return entryCount;
+        }
+
+        @Override
+        int hashEntries() {
+            return hash;
+        }
+
+        @Override
+        void forEach(final EntryVisitor visitor) {
+            for (Object child: children) {
+                ((Node) child).forEach(visitor);
+            }
+        }
+
+        @Override
+        int getKeyHash() {
+            throw new RuntimeException("Unsupported operation");
+        }
+    }
+
+    public static class CollisionNode extends Node {
+        public final int keyHash;
+        public final long[] keys;
+        public final Object[] values;
+
+        public CollisionNode(
+                final int keyHash,
+                final long[] keys,
+                final Object[] values) {
+            this.keyHash = keyHash;
+            this.keys = keys;
+            this.values = values;
+        }
+
+        private int findKey(final long key) {
+            for (int i = 0; i < keys.length; ++ i) {
+                if (keys[i] == key) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        Object get(
+                final int shift,
+                final int keyHash,
+                final long key,
+                final Object notFound) {
+            if (this.keyHash != keyHash) {
+                return notFound;
+            } else {
+                final int index = findKey(key);
+                if (index == -1) {
+                    return notFound;
+                } else {
+                    return values[index];
+                }
+            }
+        }
+
+        @Override
+        Node assoc(final int shift, final Entry entry) {
+            if (keyHash != entry.keyHash) {
+                return makeArrayNode(this, shift).assoc(shift, entry);
+            } else {
+                final int index = findKey(entry.key);
+                if (index == -1) {
+                    final int length = keys.length;
+                    final long[] newKeys = Arrays.copyOf(keys, length + 1);
+                    final Object[] newValues =
+                        Arrays.copyOf(values, length + 1);
+                    newKeys[length] = entry.key;
+                    newValues[length] = entry.value;
+                    return new CollisionNode(keyHash, newKeys, newValues);
+                } else if (Objects.equals(values[index], entry.value)) {
+                    return this;
+                } else {
+                    // Keys stay the same, so they can be shared
+                    final Object[] newValues = values.clone();
+                    newValues[index] = entry.value;
+                    return new CollisionNode(keyHash, keys, newValues);
+                }
+            }
+        }
+
+        @Override
+        Node dissoc(final int shift, final int keyHash, final long key) {
+            final int index = this.keyHash == keyHash ? findKey(key) : -1;
+            if (index == -1) {
+                return this;
+            } else if (keys.length == 2) {
+                return new Entry(
+                    keyHash, keys[1 - index], values[1 - index]);
+            } else {
+                return new CollisionNode(
+                    keyHash,
+                    removeKey(keys, index),
+                    Nodes.removeChild(values, index));
+            }
+        }
+
+        @Override
+        int countEntries() {
+            return keys.length;
+        }
+
+        @Override
+        int hashEntries() {
+            // Collision nodes are small, no need to cache their hash
+            int hash = 0;
+            for (int i = 0; i < keys.length; ++ i) {
+                hash += Long.hashCode(keys[i]) ^ Objects.hashCode(values[i]);
+            }
+            return hash;
+        }
+
+        @Override
+        void forEach(final EntryVisitor visitor) {
+            for (int i = 0; i < keys.length; ++ i) {
+                visitor.visit(keys[i], values[i]);
+            }
+        }
+
+        @Override
+        int getKeyHash() {
+            return keyHash;
+        }
+    }
+
+    public interface EntryVisitor {
+        void visit(long key, Object value);
+    }
+
+    private static final Object NOT_FOUND = new Object();
+
+    private static long[] removeKey(final long[] keys, final int index) {
+        final long[] newKeys = new long[keys.length - 1];
+        System.arraycopy(keys, 0, newKeys, 0, index);
+        System.arraycopy(
+            keys, index + 1, newKeys, index, newKeys.length - index);
+        return newKeys;
+    }
+
+    public static ArrayNode makeArrayNode(
+            final Node node,
+            final int shift) {
+        return new ArrayNode(
+            Nodes.bitpos(shift, node.getKeyHash()),
+            new Object[] { node },
+            node.countEntries(),
+            node.hashEntries());
+    }
+
+    public static int countEntries(final Object node) {
+        return ((Node) node).countEntries();
+    }
+
+    public static int hashEntries(final Object node) {
+        return ((Node) node).hashEntries();
+    }
+
+    public static Object assoc(
+            final Object node,
+            final int shift,
+            final Entry entry) {
+        return ((Node) node).assoc(shift, entry);
+    }
+
+    // Returns the value mapped to the key, or `notFound`
+    public static Object get(
+            final Object node,
+            final int shift,
+            final int keyHash,
+            final long key,
+            final Object notFound) {
+        if (node == null) {
+            return notFound;
+        } else {
+            return ((Node) node).get(shift, keyHash, key, notFound);
+        }
+    }
+
+    public static Object dissoc(
+            final Object node,
+            final int shift,
+            final int keyHash,
+            final long key) {
+        return ((Node) node).dissoc(shift, keyHash, key);
+    }
+
+    public static void forEach(
+            final Object node,
+            final EntryVisitor visitor) {
+        ((Node) node).forEach(visitor);
+    }
+
+    public static boolean equiv(
+            final int shift,
+            final Object leftNodeObj,
+            final Object rightNodeObj) {
+        if (leftNodeObj == rightNodeObj) {
+            return true;
+        } else if (leftNodeObj != null && rightNodeObj != null) {
+            final Class<?> leftNodeClass = leftNodeObj.getClass();
+            final Class<?> rightNodeClass = rightNodeObj.getClass();
+            if (countEntries(leftNodeObj) != countEntries(rightNodeObj)
+                || leftNodeClass != rightNodeClass) {
+                // In canonical form, equal sets of entries are always
+                // represented by the same kind of node
+                return false;
+            } else if (leftNodeClass == ArrayNode.class) {
+                final ArrayNode leftNode = (ArrayNode) leftNodeObj;
+                final ArrayNode rightNode = (ArrayNode) rightNodeObj;
+                // Equal hash sums don't prove equality, but different do
+                // prove inequality
+                if (leftNode.bitmap != rightNode.bitmap
+                    || leftNode.hash != rightNode.hash) {
+                    return false;
+                }
+                for (int i = 0; i < leftNode.children.length; ++ i) {
+                    if (!equiv(shift + 5,
+                               leftNode.children[i],
+                               rightNode.children[i])) {
+                        return false;
+                    }
+                }
+                return true;
+            } else if (leftNodeClass == Entry.class) {
+                final Entry leftNode = (Entry) leftNodeObj;
+                final Entry rightNode = (Entry) rightNodeObj;
+                return leftNode.key == rightNode.key
+                    && Objects.equals(leftNode.value, rightNode.value);
+            } else if (leftNodeClass == CollisionNode.class) {
+                final CollisionNode leftNode = (CollisionNode) leftNodeObj;
+                final CollisionNode rightNode = (CollisionNode) rightNodeObj;
+                if (leftNode.keyHash != rightNode.keyHash) {
+                    return false;
+                }
+                for (int i = 0; i < leftNode.keys.length; ++ i) {
+                    final int index = rightNode.findKey(leftNode.keys[i]);
+                    if (index == -1
+                        || !Objects.equals(
+                                leftNode.values[i], rightNode.values[index])) {
+                        return false;
+                    }
+                }
+                return true;
+            } else {
+                throw new RuntimeException("Unexpected type of node");
+            }
+        } else {
+            return false;
+        }
+    }
+
+    // Whether the node maps the key to an equal value
+    private static boolean contains(
+            final Object nodeObj,
+            final int shift,
+            final int keyHash,
+            final long key,
+            final Object value) {
+        final Object found = get(nodeObj, shift, keyHash, key, NOT_FOUND);
+        return found != NOT_FOUND && Objects.equals(found, value);
+    }
+
+    // Keeps the entries of an Entry or a CollisionNode, which are
+    // (keepCommon = true) or aren't (keepCommon = false) contained in
+    // the other node
+    private static Object filterLeaf(
+            final int shift,
+            final Object leafObj,
+            final Object otherNodeObj,
+            final boolean keepCommon) {
+        if (leafObj.getClass() == Entry.class) {
+            final Entry leaf = (Entry) leafObj;
+            final boolean common = contains(
+                otherNodeObj, shift, leaf.keyHash, leaf.key, leaf.value);
+            return common == keepCommon ? leaf : null;
+        } else {
+            final CollisionNode leaf = (CollisionNode) leafObj;
+            final int length = leaf.keys.length;
+            final long[] keys = new long[length];
+            final Object[] values = new Object[length];
+            int count = 0;
+            for (int i = 0; i < length; ++ i) {
+                final boolean common = contains(
+                    otherNodeObj,
+                    shift,
+                    leaf.keyHash,
+                    leaf.keys[i],
+                    leaf.values[i]);
+                if (common == keepCommon) {
+                    keys[count] = leaf.keys[i];
+                    values[count] = leaf.values[i];
+                    count += 1;
+                }
+            }
+            if (count == length) {
+                return leaf;
+            } else if (count == 0) {
+                return null;
+            } else if (count == 1) {
+                return new Entry(leaf.keyHash, keys[0], values[0]);
+            } else {
+                return new CollisionNode(
+                    leaf.keyHash,
+                    Arrays.copyOf(keys, count),
+                    Arrays.copyOf(values, count));
+            }
+        }
+    }
+
+    // Same as Nodes.replaceChildren(), but for the nodes of LongNodes
+    private static Object replaceChildren(
+            final ArrayNode node,
+            final int bits,
+            final Object[] children) {
+        int bitmap = 0;
+        int childrenCount = 0;
+        int entryCount = 0;
+        int hash = 0;
+        boolean returnNode = bits == node.bitmap;
+        int remainingBits = bits;
+        for (int i = 0; i < children.length; ++ i) {
+            final int bit = Integer.lowestOneBit(remainingBits);
+            remainingBits ^= bit;
+            final Object child = children[i];
+            if (child != null) {
+                children[childrenCount] = child;
+                childrenCount += 1;
+                bitmap |= bit;
+                entryCount += countEntries(child);
+                hash += hashEntries(child);
+            }
+            if (returnNode && child != node.children[i]) {
+                returnNode = false;
+            }
+        }
+        if (childrenCount == 0) {
+            return null;
+        } else if (returnNode) {
+            return node;
+        } else if (childrenCount == 1
+                   && children[0].getClass() != ArrayNode.class) {
+            return children[0];
+        } else {
+            return new ArrayNode(
+                bitmap,
+                Nodes.trimChildren(children, childrenCount),
+                entryCount,
+                hash);
+        }
+    }
+
+    public static Object difference(
+            final int shift,
+            final Object leftNodeObj,
+            final Object rightNodeObj) {
+        if (leftNodeObj == rightNodeObj) {
+            return null;
+        } else if (leftNodeObj == null || rightNodeObj == null) {
+            return leftNodeObj;
+        } else if (leftNodeObj.getClass() == ArrayNode.class
+                   && rightNodeObj.getClass() == ArrayNode.class) {
+            final ArrayNode leftNode = (ArrayNode) leftNodeObj;
+            final ArrayNode rightNode = (ArrayNode) rightNodeObj;
+            final Object[] children = new Object[leftNode.children.length];
+            int leftBits = leftNode.bitmap;
+            for (int i = 0; i < children.length; ++ i) {
+                final int bit = Integer.lowestOneBit(leftBits);
+                leftBits ^= bit;
+                children[i] = difference(
+                    shift + 5,
+                    leftNode.children[i],
+                    getChild(rightNode, bit));
+            }
+            return replaceChildren(leftNode, leftNode.bitmap, children);
+        } else if (leftNodeObj.getClass() != ArrayNode.class) {
+            return filterLeaf(shift, leftNodeObj, rightNodeObj, false);
+        } else if (rightNodeObj.getClass() == Entry.class) {
+            final Entry rightNode = (Entry) rightNodeObj;
+            if (contains(leftNodeObj, shift,
+                         rightNode.keyHash, rightNode.key, rightNode.value)) {
+                return dissoc(
+                    leftNodeObj, shift, rightNode.keyHash, rightNode.key);
+            } else {
+                return leftNodeObj;
+            }
+        } else {
+            // The right node is small, so remove its entries one by one
+            final CollisionNode rightNode = (CollisionNode) rightNodeObj;
+            final int keyHash = rightNode.keyHash;
+            Object result = leftNodeObj;
+            for (int i = 0; i < rightNode.keys.length; ++ i) {
+                final long key = rightNode.keys[i];
+                if (contains(result, shift,
+                             keyHash, key, rightNode.values[i])) {
+                    result = dissoc(result, shift, keyHash, key);
+                }
+            }
+            return result;
+        }
+    }
+
+    public static Object intersection(
+            final int shift,
+            final Object leftNodeObj,
+            final Object rightNodeObj) {
+        if (leftNodeObj == rightNodeObj) {
+            return leftNodeObj;
+        } else if (leftNodeObj == null || rightNodeObj == null) {
+            return null;
+        } else if (leftNodeObj.getClass() == ArrayNode.class
+                   && rightNodeObj.getClass() == ArrayNode.class) {
+            final ArrayNode leftNode = (ArrayNode) leftNodeObj;
+            final ArrayNode rightNode = (ArrayNode) rightNodeObj;
+            if (leftNode.entryCount > rightNode.entryCount) {
+                return intersection(shift, rightNode, leftNode);
+            } else {
+                // Only the slots occupied in both nodes can have
+                // anything in common
+                final int commonBitmap = leftNode.bitmap & rightNode.bitmap;
+                final Object[] children =
+                    new Object[Integer.bitCount(commonBitmap)];
+                int commonBits = commonBitmap;
+                for (int i = 0; i < children.length; ++ i) {
+                    final int bit = Integer.lowestOneBit(commonBits);
+                    commonBits ^= bit;
+                    children[i] = intersection(
+                        shift + 5,
+                        getChild(leftNode, bit),
+                        getChild(rightNode, bit));
+                }
+                return replaceChildren(leftNode, commonBitmap, children);
+            }
+        } else if (leftNodeObj.getClass() != ArrayNode.class) {
+            return filterLeaf(shift, leftNodeObj, rightNodeObj, true);
+        } else {
+            return filterLeaf(shift, rightNodeObj, leftNodeObj, true);
+        }
+    }
+
+    private static Object getChild(final ArrayNode node, final int bit) {
+        if ((node.bitmap & bit) == 0) {
+            return null;
+        } else {
+            return node.children[Nodes.childIndex(node.bitmap, bit)];
+        }
+    }
+}
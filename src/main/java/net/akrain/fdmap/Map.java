@@ -1,44 +1,218 @@
 package net.akrain.fdmap;
 
 import clojure.lang.APersistentMap;
+import clojure.lang.IDeref;
+import clojure.lang.IEditableCollection;
+import clojure.lang.IFn;
+import clojure.lang.IKVReduce;
+import clojure.lang.IMapIterable;
+import clojure.lang.IObj;
+import clojure.lang.IPersistentMap;
+import clojure.lang.IReduceInit;
+import clojure.lang.Murmur3;
+import clojure.lang.RT;
+import clojure.lang.Util;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.function.ToIntFunction;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-public class Map extends APersistentMap {
+public class Map extends APersistentMap
+        implements IEditableCollection, IKVReduce, IMapIterable, IObj,
+                   IReduceInit {
 
     public final Object root;
     public final ToIntFunction<Object> keyHasher;
+    public final BiPredicate<Object,Object> valueEquiv;
+    private final IPersistentMap meta;
+
+    // Value equivalences, which let the nodes compare the hashes of
+    // entries before comparing their values. Any other BiPredicate makes
+    // the values always be compared with it.
+    public static final BiPredicate<Object,Object>
+        VALUE_EQUALS = (leftValue, rightValue) ->
+            Objects.equals(leftValue, rightValue);
+    public static final BiPredicate<Object,Object>
+        VALUE_IDENTITY = (leftValue, rightValue) -> leftValue == rightValue;
 
     private static final ToIntFunction<Object>
         DEFAULT_KEY_HASHER = key -> Objects.hashCode(key);
-    private static final HashMap<ToIntFunction<Object>,Map>
-        BLANK_MAPS = new HashMap<>();
+    private static final Map
+        BLANK = BlankMaps.get(DEFAULT_KEY_HASHER, VALUE_EQUALS);
+    private static final BiFunction<Object,Object,Object>
+        TAKE_RIGHT_VALUE = (leftValue, rightValue) -> rightValue;
+
+    // Subtrees with more entries than this are processed in parallel
+    // by the ForkJoinPool versions of difference and intersection
+    public static final long PARALLEL_THRESHOLD = 1 << 13;
 
     public static Map blank() {
-        return blank(DEFAULT_KEY_HASHER);
+        return BLANK;
     }
 
     public static Map blank(final ToIntFunction<Object> hasher) {
-        final Map cachedMap = BLANK_MAPS.get(hasher);
-        if (cachedMap != null) {
-            return cachedMap;
+        return blank(hasher, VALUE_EQUALS);
+    }
+
+    // Values of the map are compared with valueEquiv by the operations
+    // that compare entries: assoc (to tell that nothing changes),
+    // equivValues, difference, intersection, merge and diff. equiv() and
+    // equals() always compare values with equals(), to agree with
+    // hashCode().
+    public static Map blank(
+            final ToIntFunction<Object> hasher,
+            final BiPredicate<Object,Object> valueEquiv) {
+        return BlankMaps.get(hasher, valueEquiv);
+    }
+
+    // Order of the entries in the trie, which fromSortedByHash() expects.
+    // It depends on the key hashes only.
+    public static final Comparator<Nodes.Entry> HASH_ORDER =
+        (left, right) -> Integer.compareUnsigned(
+            Nodes.trieOrder(left.keyHash), Nodes.trieOrder(right.keyHash));
+
+    public static Map fromEntries(final Collection entries) {
+        return fromEntries(entries, DEFAULT_KEY_HASHER, VALUE_EQUALS);
+    }
+
+    public static Map fromEntries(
+            final Collection entries,
+            final ToIntFunction<Object> hasher) {
+        return fromEntries(entries, hasher, VALUE_EQUALS);
+    }
+
+    // Same map as assoc() of the entries in turn would build, down to the
+    // layout of the nodes, but every node is built only once. Entries are
+    // sorted in parallel by the key hashes, before they are packed into
+    // the nodes bottom-up.
+    public static Map fromEntries(
+            final Collection entries,
+            final ToIntFunction<Object> hasher,
+            final BiPredicate<Object,Object> valueEquiv) {
+        final Nodes.Entry[] sorted = new Nodes.Entry[entries.size()];
+        int i = 0;
+        for (Object obj: entries) {
+            final java.util.Map.Entry entry = (java.util.Map.Entry) obj;
+            final Object key = entry.getKey();
+            sorted[i] = new Nodes.Entry(
+                hasher.applyAsInt(key), key, entry.getValue());
+            ++ i;
+        }
+        Nodes.sortByHash(sorted, 0, sorted.length, true);
+        if (sorted.length == 0) {
+            return blank(hasher, valueEquiv);
         } else {
-            final Map newMap = new Map(null, hasher);
-            BLANK_MAPS.put(hasher, newMap);
-            return newMap;
+            return new Map(
+                Nodes.fromSortedByHash(
+                    sorted, 0, sorted.length, 0, valueEquiv),
+                hasher,
+                valueEquiv);
         }
     }
 
-    private Map(final Object root, final ToIntFunction<Object> hasher) {
+    public static Map parallelBuild(
+            final Stream<? extends java.util.Map.Entry> entries,
+            final ForkJoinPool pool) {
+        return parallelBuild(
+            entries, DEFAULT_KEY_HASHER, VALUE_EQUALS, pool);
+    }
+
+    public static Map parallelBuild(
+            final Stream<? extends java.util.Map.Entry> entries,
+            final ToIntFunction<Object> hasher,
+            final ForkJoinPool pool) {
+        return parallelBuild(entries, hasher, VALUE_EQUALS, pool);
+    }
+
+    // Same map as fromEntries() builds of the entries in the encounter
+    // order of the stream. The keys are hashed by the stream, in the pool
+    // if the stream is parallel. The subtrees of the 32 slots of the root
+    // are sorted and built in parallel.
+    public static Map parallelBuild(
+            final Stream<? extends java.util.Map.Entry> entries,
+            final ToIntFunction<Object> hasher,
+            final BiPredicate<Object,Object> valueEquiv,
+            final ForkJoinPool pool) {
+        final Nodes.Entry[] array = invoke(pool, ForkJoinTask.adapt(
+            () -> entries
+                .map(entry -> new Nodes.Entry(
+                    hasher.applyAsInt(entry.getKey()),
+                    entry.getKey(),
+                    entry.getValue()))
+                .toArray(Nodes.Entry[]::new)));
+        final Object root = invoke(pool, new BuildTask(array, valueEquiv));
+        if (root == null) {
+            return blank(hasher, valueEquiv);
+        } else {
+            return new Map(root, hasher, valueEquiv);
+        }
+    }
+
+    public static Map fromSortedByHash(
+            final Nodes.Entry[] entries,
+            final ToIntFunction<Object> hasher) {
+        return fromSortedByHash(entries, hasher, VALUE_EQUALS);
+    }
+
+    // Builds the map in a single pass over the entries, which must be
+    // sorted in HASH_ORDER, and whose key hashes must be calculated with
+    // the hasher. Of the entries with the same key, the last one wins, as
+    // if they were assoc'ed in turn.
+    public static Map fromSortedByHash(
+            final Nodes.Entry[] entries,
+            final ToIntFunction<Object> hasher,
+            final BiPredicate<Object,Object> valueEquiv) {
+        for (int i = 1; i < entries.length; ++ i) {
+            if (HASH_ORDER.compare(entries[i - 1], entries[i]) > 0) {
+                throw new IllegalArgumentException(
+                    "Entries aren't sorted by their key hashes");
+            }
+        }
+        if (entries.length == 0) {
+            return blank(hasher, valueEquiv);
+        } else {
+            return new Map(
+                Nodes.fromSortedByHash(
+                    entries, 0, entries.length, 0, valueEquiv),
+                hasher,
+                valueEquiv);
+        }
+    }
+
+    Map(
+            final Object root,
+            final ToIntFunction<Object> hasher,
+            final BiPredicate<Object,Object> valueEquiv) {
+        this(root, hasher, valueEquiv, null);
+    }
+
+    private Map(
+            final Object root,
+            final ToIntFunction<Object> hasher,
+            final BiPredicate<Object,Object> valueEquiv,
+            final IPersistentMap meta) {
         if (hasher == null) {
             throw new IllegalArgumentException(
                 "Key-hasher isn't allowed to be null");
         }
+        if (valueEquiv == null) {
+            throw new IllegalArgumentException(
+                "Value equivalence isn't allowed to be null");
+        }
         this.root = root;
         this.keyHasher = hasher;
+        this.valueEquiv = valueEquiv;
+        this.meta = meta;
     }
 
     @Override
@@ -46,17 +220,49 @@ public class Map extends APersistentMap {
         final Nodes.Entry entry = new Nodes.Entry(
             keyHasher.applyAsInt(key), key, value);
         if (root == null) {
-            return new Map(entry, keyHasher);
+            return new Map(entry, keyHasher, valueEquiv);
         } else {
-            Object newRoot = Nodes.assoc(root, 0, entry);
+            Object newRoot = Nodes.assoc(root, 0, entry, valueEquiv);
             if (newRoot == root) {
                 return this;
             } else {
-                return new Map(newRoot, keyHasher);
+                return new Map(newRoot, keyHasher, valueEquiv);
             }
         }
     }
 
+    // Same as calling assoc() for each of the entries in turn, but every
+    // node on the paths to the entries is copied at most once, instead of
+    // once per entry. The entries are assoc'ed to a transient, which
+    // modifies in place the nodes it has already copied.
+    public Map assocAll(final Iterable entries) {
+        final TransientMap transientMap = asTransient();
+        for (Object obj: entries) {
+            final java.util.Map.Entry entry = (java.util.Map.Entry) obj;
+            transientMap.assoc(entry.getKey(), entry.getValue());
+        }
+        return transientMap.persistent();
+    }
+
+    public Map assocAll(final java.util.Map other) {
+        if (other instanceof Map) {
+            return assocAll((Map) other);
+        } else {
+            return assocAll(other.entrySet());
+        }
+    }
+
+    // Entries of the other map take precedence. If the other map has the
+    // same functions, its subtrees are merged without visiting their
+    // entries one by one.
+    public Map assocAll(final Map other) {
+        if (other.keyHasher == keyHasher && other.valueEquiv == valueEquiv) {
+            return union(other);
+        } else {
+            return assocAll((Iterable) other);
+        }
+    }
+
     @Override
     public Object get(final Object key) {
         return get(key, null);
@@ -85,9 +291,9 @@ public class Map extends APersistentMap {
                 return this;
             } else {
                 if (newRoot == null) {
-                    return blank(keyHasher);
+                    return blank(keyHasher, valueEquiv);
                 } else {
-                    return new Map(newRoot, keyHasher);
+                    return new Map(newRoot, keyHasher, valueEquiv);
                 }
             }
         }
@@ -98,48 +304,157 @@ public class Map extends APersistentMap {
         if (root == null) {
             return null;
         } else {
-            return Nodes.seq(root, root);
+            return Seq.fromIterator(root, new EntryIterator(root));
         }
     }
 
     public Map difference(final Map other) {
-        if (this.keyHasher != other.keyHasher) {
-            throw new UnsupportedOperationException(
-                "Can't calculated difference of maps that were built " +
-                "with different key-hashers");
-        }
-        Object rootDiff = Nodes.difference(0, this.root, other.root);
+        ensureSameKeyHasher(other, "difference");
+        ensureSameValueEquiv(other, "difference");
+        return differenceResult(
+            Nodes.difference(0, this.root, other.root, valueEquiv));
+    }
+
+    public Map difference(final Map other, final ForkJoinPool pool) {
+        ensureSameKeyHasher(other, "difference");
+        ensureSameValueEquiv(other, "difference");
+        return differenceResult(invoke(pool, new SetOperationTask(
+            SetOperationTask.Operation.DIFFERENCE,
+            0, this.root, other.root, PARALLEL_THRESHOLD, valueEquiv)));
+    }
+
+    private Map differenceResult(final Object rootDiff) {
         if (rootDiff == this.root) {
             return this;
         } else {
             if (rootDiff == null) {
-                return blank(keyHasher);
+                return blank(keyHasher, valueEquiv);
             } else {
-                return new Map(rootDiff, keyHasher);
+                return new Map(rootDiff, keyHasher, valueEquiv);
             }
         }
     }
 
     public Map intersection(final Map other) {
-        if (this.keyHasher != other.keyHasher) {
-            throw new UnsupportedOperationException(
-                "Can't calculated intersection of maps that were built " +
-                "with different key-hashers");
-        }
-        final Object newRoot = Nodes.intersection(0, this.root, other.root);
+        ensureSameKeyHasher(other, "intersection");
+        ensureSameValueEquiv(other, "intersection");
+        return intersectionResult(
+            other,
+            Nodes.intersection(0, this.root, other.root, valueEquiv));
+    }
+
+    public Map intersection(final Map other, final ForkJoinPool pool) {
+        ensureSameKeyHasher(other, "intersection");
+        ensureSameValueEquiv(other, "intersection");
+        return intersectionResult(other, invoke(pool, new SetOperationTask(
+            SetOperationTask.Operation.INTERSECTION,
+            0, this.root, other.root, PARALLEL_THRESHOLD, valueEquiv)));
+    }
+
+    private Map intersectionResult(final Map other, final Object newRoot) {
         if (newRoot == this.root) {
             return this;
         } else if (newRoot == other.root) {
             return other;
         } else {
             if (newRoot == null) {
-                return blank(keyHasher);
+                return blank(keyHasher, valueEquiv);
             } else {
-                return new Map(newRoot, keyHasher);
+                return new Map(newRoot, keyHasher, valueEquiv);
             }
         }
     }
 
+    // Removes the keys of the other map, whatever they are mapped to
+    public Map withoutKeys(final Map other) {
+        ensureSameKeyHasher(other, "withoutKeys");
+        return differenceResult(Nodes.withoutKeys(0, this.root, other.root));
+    }
+
+    // Keeps only the keys of the other map, with the values of this map
+    public Map selectKeys(final Map other) {
+        ensureSameKeyHasher(other, "selectKeys");
+        return intersectionResult(
+            other, Nodes.selectKeys(0, this.root, other.root));
+    }
+
+    // Entries of the other map take precedence
+    public Map union(final Map other) {
+        return merge(other, TAKE_RIGHT_VALUE, "union");
+    }
+
+    // Where both maps have the same key mapped to different values,
+    // the value is chosen by resolver(thisValue, otherValue)
+    public Map merge(
+            final Map other,
+            final BiFunction<Object,Object,Object> resolver) {
+        return merge(other, resolver, "merge");
+    }
+
+    private Map merge(
+            final Map other,
+            final BiFunction<Object,Object,Object> resolver,
+            final String operation) {
+        ensureSameKeyHasher(other, operation);
+        ensureSameValueEquiv(other, operation);
+        final Object newRoot =
+            Nodes.merge(0, this.root, other.root, resolver, valueEquiv);
+        if (newRoot == this.root) {
+            return this;
+        } else if (newRoot == other.root) {
+            return other;
+        } else {
+            return new Map(newRoot, keyHasher, valueEquiv);
+        }
+    }
+
+    // Reports to the visitor the changes, which turn this map into
+    // the other one, in a single walk over both trees
+    public void diff(final Map other, final DiffVisitor visitor) {
+        ensureSameKeyHasher(other, "diff");
+        ensureSameValueEquiv(other, "diff");
+        Nodes.diff(0, this.root, other.root, visitor, valueEquiv);
+    }
+
+    // Whether the maps have the same keys, mapped to values equivalent by
+    // valueEquiv. Unlike equal maps, such maps can have different hashes.
+    public boolean equivValues(final Map other) {
+        ensureSameKeyHasher(other, "equivValues");
+        ensureSameValueEquiv(other, "equivValues");
+        return Nodes.equiv(0, root, other.root, valueEquiv);
+    }
+
+    private void ensureSameKeyHasher(
+            final Map other,
+            final String operation) {
+        if (this.keyHasher != other.keyHasher) {
+            throw new UnsupportedOperationException(
+                "Can't calculated " + operation + " of maps that were " +
+                "built with different key-hashers");
+        }
+    }
+
+    private void ensureSameValueEquiv(
+            final Map other,
+            final String operation) {
+        if (this.valueEquiv != other.valueEquiv) {
+            throw new UnsupportedOperationException(
+                "Can't calculated " + operation + " of maps that were " +
+                "built with different value equivalences");
+        }
+    }
+
+    // Runs the task in the pool, unless already running in it
+    private static <T> T invoke(
+            final ForkJoinPool pool,
+            final ForkJoinTask<T> task) {
+        if (ForkJoinTask.getPool() == pool) {
+            return task.invoke();
+        } else {
+            return pool.invoke(task);
+        }
+    }
+
     // Implementation of IPersistentMap
 
     @Override
@@ -155,28 +470,173 @@ public class Map extends APersistentMap {
         return dissoc(key);
     }
 
+    // Implementation of IObj
+    // Metadata isn't carried over to the maps derived from this one.
+
+    @Override
+    public IPersistentMap meta() {
+        return meta;
+    }
+
+    @Override
+    public Map withMeta(final IPersistentMap meta) {
+        if (meta == this.meta) {
+            return this;
+        } else {
+            return new Map(root, keyHasher, valueEquiv, meta);
+        }
+    }
+
+    // Implementation of IEditableCollection
+
+    @Override
+    public TransientMap asTransient() {
+        return new TransientMap(this);
+    }
+
     // Implementation of Iterable
 
     @Override
-    public Iterator<Nodes.Entry> iterator() {
-        final Seq thisSeq = this.seq();
-        return new Iterator<Nodes.Entry>() {
-            private Seq seq = thisSeq;
-            public boolean hasNext() {
-                return seq != null;
+    public EntryIterator iterator() {
+        return new EntryIterator(root);
+    }
+
+    @Override
+    public EntrySpliterator spliterator() {
+        return new EntrySpliterator(root);
+    }
+
+    public Stream<Nodes.Entry> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    public Stream<Nodes.Entry> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    // Implementation of java.util.Map
+
+    @Override
+    public Set<Nodes.Entry> entrySet() {
+        return new AbstractSet<Nodes.Entry>() {
+            @Override
+            public EntryIterator iterator() {
+                return Map.this.iterator();
             }
-            public Nodes.Entry next() {
-                if (seq != null) {
-                    final Nodes.Entry next = seq.first();
-                    seq = seq.next();
-                    return next;
+
+            @Override
+            public EntrySpliterator spliterator() {
+                return Map.this.spliterator();
+            }
+
+            @Override
+            public int size() {
+                return count();
+            }
+
+            @Override
+            public int hashCode() {
+                return Map.this.hashCode();
+            }
+
+            @Override
+            public boolean contains(final Object obj) {
+                if (obj instanceof java.util.Map.Entry) {
+                    final java.util.Map.Entry entry =
+                        (java.util.Map.Entry) obj;
+                    final Nodes.Entry found = entryAt(entry.getKey());
+                    return found != null
+                        && Util.equals(found.value, entry.getValue());
                 } else {
-                    throw new NoSuchElementException();
+                    return false;
                 }
             }
         };
     }
 
+    // Implementation of IKVReduce
+
+    @Override
+    public Object kvreduce(final IFn f, final Object init) {
+        if (root == null) {
+            return init;
+        } else {
+            final Object result = Nodes.kvreduce(root, f, init);
+            if (RT.isReduced(result)) {
+                return ((IDeref) result).deref();
+            } else {
+                return result;
+            }
+        }
+    }
+
+    // Implementation of IReduceInit
+
+    @Override
+    public Object reduce(final IFn f, final Object start) {
+        if (root == null) {
+            return start;
+        } else {
+            final Object result = Nodes.reduce(root, f, start);
+            if (RT.isReduced(result)) {
+                return ((IDeref) result).deref();
+            } else {
+                return result;
+            }
+        }
+    }
+
+    // Parallel folding, in the manner of clojure.core.reducers/fold.
+    // Sub-trees of at most n entries are reduced with (reducef acc k v),
+    // starting from (combinef), and the partial results are merged with
+    // (combinef left right). To let r/fold use it:
+    //   (extend-protocol r/CollFold net.akrain.fdmap.Map
+    //     (coll-fold [m n combinef reducef] (.fold m n combinef reducef)))
+
+    public Object fold(final long n, final IFn combinef, final IFn reducef) {
+        return fold(n, combinef, reducef, ForkJoinPool.commonPool());
+    }
+
+    public Object fold(
+            final long n,
+            final IFn combinef,
+            final IFn reducef,
+            final ForkJoinPool pool) {
+        if (root == null) {
+            return combinef.invoke();
+        } else {
+            return invoke(pool, new FoldTask(root, n, combinef, reducef));
+        }
+    }
+
+    // Implementation of IMapIterable
+
+    @Override
+    public Iterator<Object> keyIterator() {
+        final EntryIterator entries = iterator();
+        return new Iterator<Object>() {
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+            public Object next() {
+                return entries.next().key;
+            }
+        };
+    }
+
+    @Override
+    public Iterator<Object> valIterator() {
+        final EntryIterator entries = iterator();
+        return new Iterator<Object>() {
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+            public Object next() {
+                return entries.next().value;
+            }
+        };
+    }
+
     // Implementation of Associative
 
     @Override
@@ -186,7 +646,12 @@ public class Map extends APersistentMap {
 
     @Override
     public Nodes.Entry entryAt(Object key) {
-        return Nodes.getEntry(root, 0, keyHasher.applyAsInt(key), key);
+        if (root == null) {
+            return null;
+        } else {
+            return Nodes.getEntry(
+                root, 0, keyHasher.applyAsInt(key), key);
+        }
     }
 
     // Implementation of IPersistentCollection
@@ -202,19 +667,50 @@ public class Map extends APersistentMap {
 
     @Override
     public Map empty() {
-        return blank(keyHasher);
+        return blank(keyHasher, valueEquiv);
     }
 
+    // Trees built with the same key-hasher can be compared node by node,
+    // whatever the value equivalences of the maps are
+
     @Override
     public boolean equiv(Object otherObj) {
-        if (otherObj instanceof Map) {
-            final Map other = (Map) otherObj;
-            return Nodes.equiv(0, root, other.root);
+        if (otherObj instanceof Map
+            && ((Map) otherObj).keyHasher == keyHasher) {
+            return Nodes.equiv(0, root, ((Map) otherObj).root);
         } else {
             return super.equiv(otherObj);
         }
     }
 
+    @Override
+    public boolean equals(Object otherObj) {
+        if (otherObj instanceof Map
+            && ((Map) otherObj).keyHasher == keyHasher) {
+            return Nodes.equiv(0, root, ((Map) otherObj).root);
+        } else {
+            return super.equals(otherObj);
+        }
+    }
+
+    // Implementation of IHashEq
+    // Both hashes are the same as the ones APersistentMap would calculate
+    // by iterating over the entries, but they are maintained by the nodes.
+
+    @Override
+    public int hashCode() {
+        if (root == null) {
+            return 0;
+        } else {
+            return Nodes.hashEntries(root);
+        }
+    }
+
+    @Override
+    public int hasheq() {
+        return Murmur3.mixCollHash(hashCode(), count());
+    }
+
     // Implementation of ILookup
 
     @Override
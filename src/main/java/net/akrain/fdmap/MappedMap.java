@@ -0,0 +1,475 @@
+package net.akrain.fdmap;
+
+import clojure.lang.APersistentMap;
+import clojure.lang.ISeq;
+import clojure.lang.IteratorSeq;
+import clojure.lang.Murmur3;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiPredicate;
+import java.util.function.ToIntFunction;
+
+// Read-only map over a Snapshot file mapped into memory. Opening it reads
+// just the header, the trailer and the root record, so it takes the same
+// time whatever the size of the map. Every other record is read when a
+// lookup or an iteration first gets to it, and the node read from it is
+// kept in place of its offset, for the later ones to share.
+//
+// The nodes of a Map can't be read lazily, so assoc() and without() read
+// the rest of the snapshot once, and build the Map of the nodes read so
+// far and of the remaining ones. That Map doesn't refer to the mapped
+// file, so neither do the maps derived from it.
+//
+// Errors in the records read lazily are thrown as UncheckedIOExceptions.
+public final class MappedMap extends APersistentMap {
+
+    // Files of any size are mapped with as many buffers of this size as
+    // they need
+    private static final int CHUNK_SIZE = 1 << 30;
+
+    // The depth of the trie, which ArrayNodes can be at
+    private static final int MAX_DEPTH = 7;
+
+    public final ToIntFunction<Object> keyHasher;
+    public final BiPredicate<Object,Object> valueEquiv;
+    private final ByteBuffer[] chunks;
+    private final long size;
+    private final Codec keyCodec;
+    private final Codec valueCodec;
+    private final int entryCount;
+    private final int hash;
+
+    // LazyNode, Nodes.Entry, Nodes.CollisionNode or null
+    private final Object root;
+
+    private volatile Map map;
+
+    // An ArrayNode, whose children are read when they are first touched
+    private final class LazyNode {
+
+        final int bitmap;
+        final int entryCount;
+        final int hash;
+        final long[] childOffsets;
+        final AtomicReferenceArray<Object> children;
+
+        LazyNode(
+                final int bitmap,
+                final int entryCount,
+                final int hash,
+                final long[] childOffsets) {
+            this.bitmap = bitmap;
+            this.entryCount = entryCount;
+            this.hash = hash;
+            this.childOffsets = childOffsets;
+            this.children = new AtomicReferenceArray<>(childOffsets.length);
+        }
+
+        Object child(final int index) {
+            final Object child = children.get(index);
+            if (child != null) {
+                return child;
+            }
+            final Object read = readNode(childOffsets[index]);
+            if (children.compareAndSet(index, null, read)) {
+                return read;
+            } else {
+                // Read by another thread at the same time
+                return children.get(index);
+            }
+        }
+    }
+
+    private MappedMap(
+            final ByteBuffer[] chunks,
+            final long size,
+            final Codec keyCodec,
+            final Codec valueCodec,
+            final ToIntFunction<Object> hasher,
+            final BiPredicate<Object,Object> valueEquiv,
+            final long rootOffset,
+            final int entryCount,
+            final int hash) {
+        this.chunks = chunks;
+        this.size = size;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.keyHasher = hasher;
+        this.valueEquiv = valueEquiv;
+        this.entryCount = entryCount;
+        this.hash = hash;
+        this.root = rootOffset == -1 ? null : readNode(rootOffset);
+        final int rootEntryCount;
+        final int rootHash;
+        if (root == null) {
+            rootEntryCount = 0;
+            rootHash = 0;
+        } else if (root.getClass() == LazyNode.class) {
+            rootEntryCount = ((LazyNode) root).entryCount;
+            rootHash = ((LazyNode) root).hash;
+        } else {
+            rootEntryCount = Nodes.countEntries(root);
+            rootHash = Nodes.hashEntries(root);
+        }
+        if (rootEntryCount != entryCount || rootHash != hash) {
+            throw new UncheckedIOException(Snapshot.corrupted("bad trailer"));
+        }
+    }
+
+    public static MappedMap open(
+            final FileChannel channel,
+            final Codec keyCodec,
+            final Codec valueCodec,
+            final ToIntFunction<Object> hasher) throws IOException {
+        return open(channel, keyCodec, valueCodec, hasher, Map.VALUE_EQUALS);
+    }
+
+    // The map stays valid after the channel is closed. The snapshot must
+    // be read with the same key-hasher it was written with.
+    public static MappedMap open(
+            final FileChannel channel,
+            final Codec keyCodec,
+            final Codec valueCodec,
+            final ToIntFunction<Object> hasher,
+            final BiPredicate<Object,Object> valueEquiv)
+            throws IOException {
+        final long size = channel.size();
+        if (size < Snapshot.HEADER_SIZE + 1 + Snapshot.TRAILER_SIZE) {
+            throw new IOException("Not a snapshot of a map");
+        }
+        final ByteBuffer[] chunks =
+            new ByteBuffer[(int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+        for (int i = 0; i < chunks.length; ++ i) {
+            final long start = (long) i * CHUNK_SIZE;
+            chunks[i] = channel.map(
+                FileChannel.MapMode.READ_ONLY,
+                start,
+                Math.min(CHUNK_SIZE, size - start));
+        }
+
+        final DataInputStream header = new DataInputStream(
+            new ChunksInputStream(chunks, size, 0));
+        if (header.readInt() != Snapshot.MAGIC) {
+            throw new IOException("Not a snapshot of a map");
+        }
+        Snapshot.readVersionAndId(header);
+        final DataInputStream trailer = new DataInputStream(
+            new ChunksInputStream(
+                chunks, size, size - Snapshot.TRAILER_SIZE - 1));
+        if (trailer.readByte() != Snapshot.END) {
+            throw Snapshot.corrupted("bad trailer");
+        }
+        final long rootOffset = trailer.readLong();
+        final int entryCount = trailer.readInt();
+        final int hash = trailer.readInt();
+        if (trailer.readInt() != Snapshot.MAGIC
+            || rootOffset < -1
+            || rootOffset >= size - Snapshot.TRAILER_SIZE - 1) {
+            throw Snapshot.corrupted("bad trailer");
+        }
+        try {
+            return new MappedMap(
+                chunks,
+                size,
+                keyCodec,
+                valueCodec,
+                hasher,
+                valueEquiv,
+                rootOffset,
+                entryCount,
+                hash);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Map of the same entries, which has all of its nodes in memory
+    public Map toMap() {
+        Map result = map;
+        if (result == null) {
+            result = new Map(materialize(root), keyHasher, valueEquiv);
+            map = result;
+        }
+        return result;
+    }
+
+    private static Object materialize(final Object nodeObj) {
+        if (nodeObj == null
+            || nodeObj.getClass() != MappedMap.LazyNode.class) {
+            return nodeObj;
+        }
+        final LazyNode node = (LazyNode) nodeObj;
+        final Object[] children = new Object[node.childOffsets.length];
+        for (int i = 0; i < children.length; ++ i) {
+            children[i] = materialize(node.child(i));
+        }
+        return new Nodes.ArrayNode(
+            node.bitmap, children, node.entryCount, node.hash);
+    }
+
+    private Object readNode(final long offset) {
+        try {
+            final DataInputStream in = new DataInputStream(
+                new ChunksInputStream(chunks, size, offset));
+            final byte tag = in.readByte();
+            if (tag == Snapshot.ENTRY) {
+                return readEntry(in.readInt(), in);
+            } else if (tag == Snapshot.COLLISION) {
+                final int keyHash = in.readInt();
+                // Checked before the entries are allocated, since a
+                // collision node can't have more entries than the map
+                final int count = in.readInt();
+                if (count < 2) {
+                    throw Snapshot.corrupted(
+                        "collision node of a single entry");
+                } else if (count > this.entryCount) {
+                    throw Snapshot.corrupted(
+                        "collision node of more entries than the map");
+                }
+                final Nodes.Entry[] children = new Nodes.Entry[count];
+                for (int i = 0; i < children.length; ++ i) {
+                    children[i] = readEntry(keyHash, in);
+                }
+                return new Nodes.CollisionNode(children, keyHash);
+            } else if (tag == Snapshot.ARRAY) {
+                final int bitmap = in.readInt();
+                final int entryCount = in.readInt();
+                final int hash = in.readInt();
+                final long[] childOffsets =
+                    new long[Integer.bitCount(bitmap)];
+                for (int i = 0; i < childOffsets.length; ++ i) {
+                    childOffsets[i] = in.readLong();
+                    if (childOffsets[i] < 0 || childOffsets[i] >= offset) {
+                        throw Snapshot.corrupted(
+                            "unexpected offset of a child");
+                    }
+                }
+                return new LazyNode(bitmap, entryCount, hash, childOffsets);
+            } else {
+                throw Snapshot.corrupted("unknown type of record " + tag);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Nodes.Entry readEntry(final int keyHash, final DataInputStream in)
+            throws IOException {
+        final Object key = keyCodec.read(in);
+        return new Nodes.Entry(keyHash, key, valueCodec.read(in));
+    }
+
+    // Implementation of IPersistentMap
+
+    @Override
+    public Map assoc(Object key, Object val) {
+        return toMap().assoc(key, val);
+    }
+
+    @Override
+    public Map assocEx(Object key, Object val) {
+        return toMap().assocEx(key, val);
+    }
+
+    @Override
+    public Map without(Object key) {
+        return toMap().without(key);
+    }
+
+    // Implementation of Iterable
+
+    @Override
+    public Iterator<Object> iterator() {
+        return new LazyEntryIterator();
+    }
+
+    // Entries in the order of EntryIterator
+    private final class LazyEntryIterator implements Iterator<Object> {
+
+        private final LazyNode[] nodes = new LazyNode[MAX_DEPTH];
+        private final int[] nextIndices = new int[MAX_DEPTH];
+        private int depth;
+        private Nodes.Entry[] collision;
+        private int collisionIndex;
+        private Nodes.Entry next;
+
+        LazyEntryIterator() {
+            if (root != null) {
+                descend(root);
+            }
+        }
+
+        private void descend(final Object nodeObj) {
+            Object node = nodeObj;
+            while (node.getClass() == LazyNode.class) {
+                nodes[depth] = (LazyNode) node;
+                nextIndices[depth] = 1;
+                ++ depth;
+                node = ((LazyNode) node).child(0);
+            }
+            if (node.getClass() == Nodes.Entry.class) {
+                next = (Nodes.Entry) node;
+            } else {
+                collision = ((Nodes.CollisionNode) node).children;
+                collisionIndex = 1;
+                next = collision[0];
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Nodes.Entry next() {
+            final Nodes.Entry result = next;
+            if (result == null) {
+                throw new NoSuchElementException();
+            }
+            if (collision != null && collisionIndex < collision.length) {
+                next = collision[collisionIndex];
+                ++ collisionIndex;
+                return result;
+            }
+            collision = null;
+            next = null;
+            while (depth > 0) {
+                final LazyNode node = nodes[depth - 1];
+                final int index = nextIndices[depth - 1];
+                if (index < node.childOffsets.length) {
+                    nextIndices[depth - 1] = index + 1;
+                    descend(node.child(index));
+                    break;
+                }
+                nodes[depth - 1] = null;
+                -- depth;
+            }
+            return result;
+        }
+    }
+
+    // Implementation of Associative
+
+    @Override
+    public boolean containsKey(Object key) {
+        return entryAt(key) != null;
+    }
+
+    @Override
+    public Nodes.Entry entryAt(Object key) {
+        final int keyHash = keyHasher.applyAsInt(key);
+        Object node = root;
+        int shift = 0;
+        while (node != null && node.getClass() == LazyNode.class) {
+            final LazyNode arrayNode = (LazyNode) node;
+            final int bit = Nodes.bitpos(shift, keyHash);
+            if ((arrayNode.bitmap & bit) == 0) {
+                return null;
+            }
+            node = arrayNode.child(Nodes.childIndex(arrayNode.bitmap, bit));
+            shift += 5;
+        }
+        if (node == null) {
+            return null;
+        } else {
+            return Nodes.getEntry(node, shift, keyHash, key);
+        }
+    }
+
+    // Implementation of IPersistentCollection
+
+    @Override
+    public int count() {
+        return entryCount;
+    }
+
+    @Override
+    public Map empty() {
+        return Map.blank(keyHasher, valueEquiv);
+    }
+
+    // Implementation of Seqable
+
+    @Override
+    public ISeq seq() {
+        return IteratorSeq.create(iterator());
+    }
+
+    // Implementation of IHashEq
+    // Both hashes are read from the trailer of the snapshot
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public int hasheq() {
+        return Murmur3.mixCollHash(hash, entryCount);
+    }
+
+    // Implementation of ILookup
+
+    @Override
+    public Object valAt(Object key) {
+        return valAt(key, null);
+    }
+
+    @Override
+    public Object valAt(Object key, Object notFound) {
+        final Nodes.Entry entry = entryAt(key);
+        return entry == null ? notFound : entry.value;
+    }
+
+    // Reads the bytes of the buffers from the given position on
+    private static final class ChunksInputStream extends InputStream {
+
+        private final ByteBuffer[] chunks;
+        private final long size;
+        private long position;
+
+        ChunksInputStream(
+                final ByteBuffer[] chunks,
+                final long size,
+                final long position) {
+            this.chunks = chunks;
+            this.size = size;
+            this.position = position;
+        }
+
+        @Override
+        public int read() {
+            if (position >= size) {
+                return -1;
+            }
+            final int b = chunks[(int) (position / CHUNK_SIZE)]
+                .get((int) (position % CHUNK_SIZE));
+            ++ position;
+            return b & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            } else if (position >= size) {
+                return -1;
+            }
+            final ByteBuffer chunk =
+                chunks[(int) (position / CHUNK_SIZE)].duplicate();
+            chunk.position((int) (position % CHUNK_SIZE));
+            final int n = Math.min(len, chunk.remaining());
+            chunk.get(b, off, n);
+            position += n;
+            return n;
+        }
+    }
+}
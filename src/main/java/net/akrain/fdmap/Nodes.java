@@ -1,19 +1,99 @@
 package net.akrain.fdmap;
 
+import clojure.lang.IFn;
 import clojure.lang.IMapEntry;
-import java.util.ArrayList;
+import clojure.lang.RT;
+import java.util.Arrays;
 import java.util.Objects;
-import java.util.Optional;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
 
 public class Nodes {
 
-    public static class Entry implements IMapEntry {
+    // Base class of the nodes of the trie. Each class of nodes implements
+    // the operations on a single node itself, so a step of a lookup or an
+    // update is a single virtual call, instead of a chain of getClass()
+    // checks. The constructor is package-private, so Entry, ArrayNode and
+    // CollisionNode are the only classes of nodes.
+    //
+    // Operations on two nodes at once (equiv(), difference(), etc.) depend
+    // on the classes of both nodes, which a virtual call can't dispatch
+    // on, so they stay static.
+    public abstract static class Node {
+
+        Node() {
+        }
+
+        abstract Entry getEntry(int shift, int keyHash, Object key);
+
+        // Returns the node itself, if it already maps the key to a value
+        // equivalent to the value of the entry
+        abstract Object assoc(
+            int shift,
+            Entry entry,
+            BiPredicate<Object,Object> valueEquiv);
+
+        // Same as assoc(), but modifies in place the nodes owned by `edit`
+        // and makes all the new nodes owned by `edit`.
+        abstract Object assoc(
+            Object edit,
+            int shift,
+            Entry entry,
+            BiPredicate<Object,Object> valueEquiv);
+
+        abstract Object dissoc(int shift, int keyHash, Object key);
+
+        // Same as dissoc(), but modifies in place the nodes owned by `edit`
+        // and makes all the new nodes owned by `edit`.
+        abstract Object dissoc(
+            Object edit,
+            int shift,
+            int keyHash,
+            Object key);
+
+        abstract int countEntries();
+
+        // Sum of hashCode() of all the entries under the node
+        abstract int hashEntries();
+
+        // Calls f(result, key, value) for each entry under the node.
+        // Stops early and returns the Reduced value, if f returns one.
+        abstract Object kvreduce(IFn f, Object init);
+
+        // Calls f(result, entry) for each entry under the node.
+        // Stops early and returns the Reduced value, if f returns one.
+        abstract Object reduce(IFn f, Object init);
+
+        // Seq over the entries of the root, starting at the first entry
+        // under the node
+        abstract Seq seq(Object root);
+
+        // Seq over the entries of the root, starting after the entry with
+        // the key hash and the index within its CollisionNode. Returns
+        // null, if the entry is the last one under the node.
+        abstract Seq next(
+            Object root,
+            int shift,
+            int keyHash,
+            int entryIndex);
+
+        // The Entry or the CollisionNode under the node, which holds the
+        // entries with the key hash, or null
+        abstract Object getEntryOrCollisionNode(int shift, int keyHash);
+
+        // Key hash of the entries of an Entry or a CollisionNode
+        abstract int getKeyHash();
+    }
+
+    public static class Entry extends Node implements IMapEntry {
         public final int keyHash;
         public final Object key;
         public final Object value;
 
-        private int _hash;
-        private boolean _hashCached;
+        // Every entry gets hashed anyway, when it is added to a node, to
+        // maintain the hash sums. Being final, the hash is safely
+        // published with the entry.
+        private final int hash;
 
         public Entry(
                 final int keyHash,
@@ -22,8 +102,138 @@ public class Nodes {
             this.keyHash = keyHash;
             this.key = key;
             this.value = value;
-            this._hash = 0;
-            this._hashCached = false;
+            // As required by java.util.Map.Entry
+            this.hash = Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        @Override
+        Entry getEntry(
+                final int shift,
+                final int keyHash,
+                final Object key) {
+            if (this.keyHash == keyHash) {
+                if (Objects.equals(this.key, key)) {
+                    return this;
+                } else {
+                    return null;
+                }
+            } else {
+                return null;
+            }
+        }
+
+        @Override
+        Object assoc(
+                final int shift,
+                final Entry entry,
+                final BiPredicate<Object,Object> valueEquiv) {
+            if (Objects.equals(key, entry.key)) {
+                if (sameValue(this, entry, valueEquiv)) {
+                    return this;
+                } else {
+                    return entry;
+                }
+            } else {
+                if (keyHash == entry.keyHash) {
+                    return new CollisionNode(
+                        new Entry[] { this, entry }, keyHash);
+                } else {
+                    return makeArrayNode(this, shift)
+                        .assoc(shift, entry, valueEquiv);
+                }
+            }
+        }
+
+        @Override
+        Object assoc(
+                final Object edit,
+                final int shift,
+                final Entry entry,
+                final BiPredicate<Object,Object> valueEquiv) {
+            if (Objects.equals(key, entry.key)) {
+                if (sameValue(this, entry, valueEquiv)) {
+                    return this;
+                } else {
+                    return entry;
+                }
+            } else {
+                if (keyHash == entry.keyHash) {
+                    return new CollisionNode(
+                        edit, new Entry[] { this, entry }, keyHash);
+                } else {
+                    return makeArrayNode(edit, this, shift)
+                        .assoc(edit, shift, entry, valueEquiv);
+                }
+            }
+        }
+
+        @Override
+        Object dissoc(
+                final int shift,
+                final int keyHash,
+                final Object key) {
+            if (Objects.equals(this.key, key)) {
+                return null;
+            } else {
+                return this;
+            }
+        }
+
+        @Override
+        Object dissoc(
+                final Object edit,
+                final int shift,
+                final int keyHash,
+                final Object key) {
+            return dissoc(shift, keyHash, key);
+        }
+
+        @Override
+        int countEntries() {
+            return 1;
+        }
+
+        @Override
+        int hashEntries() {
+            return hash;
+        }
+
+        @Override
+        Object kvreduce(final IFn f, final Object init) {
+            return f.invoke(init, key, value);
+        }
+
+        @Override
+        Object reduce(final IFn f, final Object init) {
+            return f.invoke(init, this);
+        }
+
+        @Override
+        Seq seq(final Object root) {
+            return new Seq(root, this, 0);
+        }
+
+        @Override
+        Seq next(
+                final Object root,
+                final int shift,
+                final int keyHash,
+                final int entryIndex) {
+            return null;
+        }
+
+        @Override
+        Object getEntryOrCollisionNode(final int shift, final int keyHash) {
+            if (this.keyHash == keyHash) {
+                return this;
+            } else {
+                return null;
+            }
+        }
+
+        @Override
+        int getKeyHash() {
+            return keyHash;
         }
 
         @Override
@@ -40,11 +250,7 @@ public class Nodes {
 
         @Override
         public int hashCode() {
-            if (!_hashCached) {
-                _hash = Objects.hash(key, value);
-                _hashCached = true;
-            }
-            return _hash;
+            return hash;
         }
 
         public String toString() {
@@ -76,375 +282,961 @@ public class Nodes {
         }
     }
 
-    public static class ArrayNode {
-        public final Object[] children;
-        public final int childrenCount;
-        public final int entryCount;
+    // Nodes are immutable, unless they are owned by a transient map.
+    // A node is owned by a transient map, if its `edit` field refers to
+    // the edit token of that map. Such nodes are modified in place, which
+    // is why their mutable fields are accessible only in this package.
+
+    public static class ArrayNode extends Node {
+        // Bit N is set when the N-th slot of the node is occupied.
+        // Children of the occupied slots are stored compactly, in order
+        // of their slot numbers.
+        int bitmap;
+        Object[] children;
+        int entryCount;
+        // Sum of hashCode() of all the entries under the node
+        int hash;
+        public final Object edit;
 
         public ArrayNode(
+                final int bitmap,
                 final Object[] children,
-                final int childrenCount,
-                final int entryCount) {
+                final int entryCount,
+                final int hash) {
+            this(null, bitmap, children, entryCount, hash);
+        }
+
+        public ArrayNode(
+                final Object edit,
+                final int bitmap,
+                final Object[] children,
+                final int entryCount,
+                final int hash) {
+            this.edit = edit;
+            this.bitmap = bitmap;
             this.children = children;
-            this.childrenCount = childrenCount;
             this.entryCount = entryCount;
+            this.hash = hash;
+        }
+
+        @Override
+        Entry getEntry(
+                final int shift,
+                final int keyHash,
+                final Object key) {
+            final Object child = getChild(this, bitpos(shift, keyHash));
+            if (child == null) {
+                return null;
+            } else {
+                return ((Node) child).getEntry(shift + 5, keyHash, key);
+            }
+        }
+
+        @Override
+        Object assoc(
+                final int shift,
+                final Entry entry,
+                final BiPredicate<Object,Object> valueEquiv) {
+            final int bit = bitpos(shift, entry.keyHash);
+            final int childIndex = childIndex(bitmap, bit);
+            if ((bitmap & bit) == 0) {
+                return new ArrayNode(
+                    bitmap | bit,
+                    insertChild(children, childIndex, entry),
+                    entryCount + 1,
+                    hash + entry.hashCode());
+            } else {
+                final Node child = (Node) children[childIndex];
+                final Object newChildObj =
+                    child.assoc(shift + 5, entry, valueEquiv);
+                if (child == newChildObj) {
+                    return this;
+                } else {
+                    final Node newChild = (Node) newChildObj;
+                    final Object[] newChildren = children.clone();
+                    newChildren[childIndex] = newChild;
+                    return new ArrayNode(
+                        bitmap,
+                        newChildren,
+                        entryCount
+                            + newChild.countEntries()
+                            - child.countEntries(),
+                        hash
+                            + newChild.hashEntries()
+                            - child.hashEntries());
+                }
+            }
+        }
+
+        @Override
+        Object assoc(
+                final Object edit,
+                final int shift,
+                final Entry entry,
+                final BiPredicate<Object,Object> valueEquiv) {
+            final int bit = bitpos(shift, entry.keyHash);
+            final int childIndex = childIndex(bitmap, bit);
+            if ((bitmap & bit) == 0) {
+                final Object[] newChildren =
+                    insertChild(children, childIndex, entry);
+                if (this.edit == edit) {
+                    this.bitmap |= bit;
+                    this.children = newChildren;
+                    this.entryCount += 1;
+                    this.hash += entry.hashCode();
+                    return this;
+                } else {
+                    return new ArrayNode(
+                        edit,
+                        bitmap | bit,
+                        newChildren,
+                        entryCount + 1,
+                        hash + entry.hashCode());
+                }
+            } else {
+                // The child can be modified in place, so remember its
+                // entry count and hash before the modification
+                final Node child = (Node) children[childIndex];
+                final int childEntryCount = child.countEntries();
+                final int childHash = child.hashEntries();
+                final Node newChild =
+                    (Node) child.assoc(edit, shift + 5, entry, valueEquiv);
+                final int newChildEntryCount = newChild.countEntries();
+                final int newChildHash = newChild.hashEntries();
+                if (child == newChild
+                    && childEntryCount == newChildEntryCount
+                    && childHash == newChildHash) {
+                    return this;
+                } else {
+                    final ArrayNode editableNode = editable(edit, this);
+                    editableNode.children[childIndex] = newChild;
+                    editableNode.entryCount +=
+                        newChildEntryCount - childEntryCount;
+                    editableNode.hash += newChildHash - childHash;
+                    return editableNode;
+                }
+            }
+        }
+
+        @Override
+        Object dissoc(
+                final int shift,
+                final int keyHash,
+                final Object key) {
+            final int bit = bitpos(shift, keyHash);
+            if ((bitmap & bit) == 0) {
+                return this;
+            } else {
+                final int childIndex = childIndex(bitmap, bit);
+                final Node child = (Node) children[childIndex];
+                final Object newChild = child.dissoc(shift + 5, keyHash, key);
+                if (child == newChild) {
+                    return this;
+                } else {
+                    final int newChildrenCount = (newChild == null)
+                        ? children.length - 1
+                        : children.length;
+
+                    if (newChildrenCount == 0) {
+                        throw new UnsupportedOperationException(
+                            "If no children left, that means that before "
+                            + "this call the ArrayNode had only one entry "
+                            + "under it, which isn't allowed to happen.");
+                    } else if (newChildrenCount == 1) {
+                        // If only one child left and it is not an ArrayNode,
+                        // we should return this child, instead.
+                        if (newChild == null) {
+                            final Object ch = children[1 - childIndex];
+                            if (ch.getClass() != ArrayNode.class) {
+                                return ch;
+                            }
+                        } else {
+                            if (newChild.getClass() != ArrayNode.class) {
+                                return newChild;
+                            }
+                        }
+                    }
+
+                    if (newChild == null) {
+                        return new ArrayNode(
+                            bitmap ^ bit,
+                            removeChild(children, childIndex),
+                            entryCount - 1,
+                            hash - child.hashEntries());
+                    } else {
+                        final Object[] newChildren = children.clone();
+                        newChildren[childIndex] = newChild;
+                        return new ArrayNode(
+                            bitmap,
+                            newChildren,
+                            entryCount - 1,
+                            hash
+                                - child.hashEntries()
+                                + ((Node) newChild).hashEntries());
+                    }
+                }
+            }
+        }
+
+        @Override
+        Object dissoc(
+                final Object edit,
+                final int shift,
+                final int keyHash,
+                final Object key) {
+            final int bit = bitpos(shift, keyHash);
+            if ((bitmap & bit) == 0) {
+                return this;
+            } else {
+                final int childIndex = childIndex(bitmap, bit);
+                final Node child = (Node) children[childIndex];
+                final int childEntryCount = child.countEntries();
+                final int childHash = child.hashEntries();
+                final Object newChild =
+                    child.dissoc(edit, shift + 5, keyHash, key);
+                if (child == newChild
+                    && childEntryCount == child.countEntries()) {
+                    return this;
+                } else {
+                    final int newChildrenCount = (newChild == null)
+                        ? children.length - 1
+                        : children.length;
+
+                    if (newChildrenCount == 0) {
+                        throw new UnsupportedOperationException(
+                            "If no children left, that means that before "
+                            + "this call the ArrayNode had only one entry "
+                            + "under it, which isn't allowed to happen.");
+                    } else if (newChildrenCount == 1) {
+                        // If only one child left and it is not an ArrayNode,
+                        // we should return this child, instead.
+                        if (newChild == null) {
+                            final Object ch = children[1 - childIndex];
+                            if (ch.getClass() != ArrayNode.class) {
+                                return ch;
+                            }
+                        } else {
+                            if (newChild.getClass() != ArrayNode.class) {
+                                return newChild;
+                            }
+                        }
+                    }
+
+                    if (newChild == null) {
+                        final Object[] newChildren =
+                            removeChild(children, childIndex);
+                        if (this.edit == edit) {
+                            this.bitmap ^= bit;
+                            this.children = newChildren;
+                            this.entryCount -= 1;
+                            this.hash -= childHash;
+                            return this;
+                        } else {
+                            return new ArrayNode(
+                                edit,
+                                bitmap ^ bit,
+                                newChildren,
+                                entryCount - 1,
+                                hash - childHash);
+                        }
+                    } else {
+                        final ArrayNode editableNode = editable(edit, this);
+                        editableNode.children[childIndex] = newChild;
+                        editableNode.entryCount -= 1;
+                        editableNode.hash +=
+                            ((Node) newChild).hashEntries() - childHash;
+                        return editableNode;
+                    }
+                }
+            }
+        }
+
+        @Override
+        int countEntries() {
+            return entryCount;
+        }
+
+        @Override
+        int hashEntries() {
+            return hash;
+        }
+
+        @Override
+        Object kvreduce(final IFn f, final Object init) {
+            Object result = init;
+            for (Object child: children) {
+                result = ((Node) child).kvreduce(f, result);
+                if (RT.isReduced(result)) {
+                    return result;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        Object reduce(final IFn f, final Object init) {
+            Object result = init;
+            for (Object child: children) {
+                result = ((Node) child).reduce(f, result);
+                if (RT.isReduced(result)) {
+                    return result;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        Seq seq(final Object root) {
+            if (children.length == 0) {
+                throw new RuntimeException(
+                    "ArrayNode is supposed to have at least one child");
+            }
+            return ((Node) children[0]).seq(root);
+        }
+
+        @Override
+        Seq next(
+                final Object root,
+                final int shift,
+                final int keyHash,
+                final int entryIndex) {
+            final int childIndex = childIndex(
+                bitmap, bitpos(shift, keyHash));
+            final Seq s = ((Node) children[childIndex]).next(
+                root, shift + 5, keyHash, entryIndex);
+            if (s != null) {
+                return s;
+            } else if (childIndex + 1 < children.length) {
+                return ((Node) children[childIndex + 1]).seq(root);
+            } else {
+                return null;
+            }
+        }
+
+        @Override
+        Object getEntryOrCollisionNode(final int shift, final int keyHash) {
+            final Object child = getChild(this, bitpos(shift, keyHash));
+            if (child == null) {
+                return null;
+            } else {
+                return ((Node) child).getEntryOrCollisionNode(
+                    shift + 5, keyHash);
+            }
+        }
+
+        @Override
+        int getKeyHash() {
+            throw new RuntimeException("Unsupported operation");
         }
     }
 
-    public static class CollisionNode {
-        public final ArrayList<Entry> children;
+    public static class CollisionNode extends Node {
+        // Entries are kept in the order they were added. The array is
+        // replaced, when an entry is added to or removed from a node
+        // owned by a transient map.
+        Entry[] children;
         public final int keyHash;
+        public final Object edit;
 
         public CollisionNode(
-                final ArrayList<Entry> children,
+                final Entry[] children,
                 final int keyHash) {
+            this(null, children, keyHash);
+        }
+
+        public CollisionNode(
+                final Object edit,
+                final Entry[] children,
+                final int keyHash) {
+            this.edit = edit;
             this.keyHash = keyHash;
             this.children = children;
         }
+
+        // Index of the entry with the key, or -1 if there is none
+        int indexOf(final Object key) {
+            final Entry[] children = this.children;
+            for (int i = 0; i < children.length; ++ i) {
+                if (Objects.equals(children[i].key, key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        Entry getEntry(
+                final int shift,
+                final int keyHash,
+                final Object key) {
+            final int childIndex = indexOf(key);
+            if (childIndex == -1) {
+                return null;
+            } else {
+                return children[childIndex];
+            }
+        }
+
+        @Override
+        Object assoc(
+                final int shift,
+                final Entry entry,
+                final BiPredicate<Object,Object> valueEquiv) {
+            if (keyHash == entry.keyHash) {
+                final int childIndex = indexOf(entry.key);
+                if (childIndex != -1) {
+                    final Entry child = children[childIndex];
+                    if (sameValue(child, entry, valueEquiv)) {
+                        return this;
+                    } else {
+                        final Entry[] newChildren = children.clone();
+                        newChildren[childIndex] = entry;
+                        return new CollisionNode(newChildren, keyHash);
+                    }
+                } else {
+                    return new CollisionNode(
+                        appendEntry(children, entry), keyHash);
+                }
+            } else {
+                return makeArrayNode(this, shift)
+                    .assoc(shift, entry, valueEquiv);
+            }
+        }
+
+        @Override
+        Object assoc(
+                final Object edit,
+                final int shift,
+                final Entry entry,
+                final BiPredicate<Object,Object> valueEquiv) {
+            if (keyHash == entry.keyHash) {
+                final int childIndex = indexOf(entry.key);
+                if (childIndex != -1) {
+                    final Entry child = children[childIndex];
+                    if (sameValue(child, entry, valueEquiv)) {
+                        return this;
+                    } else {
+                        final CollisionNode editableNode =
+                            editable(edit, this);
+                        editableNode.children[childIndex] = entry;
+                        return editableNode;
+                    }
+                } else {
+                    final Entry[] newChildren = appendEntry(children, entry);
+                    if (this.edit == edit) {
+                        this.children = newChildren;
+                        return this;
+                    } else {
+                        return new CollisionNode(edit, newChildren, keyHash);
+                    }
+                }
+            } else {
+                return makeArrayNode(edit, this, shift)
+                    .assoc(edit, shift, entry, valueEquiv);
+            }
+        }
+
+        @Override
+        Object dissoc(
+                final int shift,
+                final int keyHash,
+                final Object key) {
+            if (this.keyHash != keyHash) {
+                return this;
+            } else {
+                final int childIndex = indexOf(key);
+                if (childIndex == -1) {
+                    return this;
+                } else if (children.length > 2) {
+                    return new CollisionNode(
+                        removeEntry(children, childIndex), keyHash);
+                } else {
+                    return children[1 - childIndex];
+                }
+            }
+        }
+
+        @Override
+        Object dissoc(
+                final Object edit,
+                final int shift,
+                final int keyHash,
+                final Object key) {
+            if (this.keyHash != keyHash) {
+                return this;
+            } else {
+                final int childIndex = indexOf(key);
+                if (childIndex == -1) {
+                    return this;
+                } else if (children.length > 2) {
+                    final Entry[] newChildren =
+                        removeEntry(children, childIndex);
+                    if (this.edit == edit) {
+                        this.children = newChildren;
+                        return this;
+                    } else {
+                        return new CollisionNode(edit, newChildren, keyHash);
+                    }
+                } else {
+                    return children[1 - childIndex];
+                }
+            }
+        }
+
+        @Override
+        int countEntries() {
+            return children.length;
+        }
+
+        @Override
+        int hashEntries() {
+            // Collision nodes are small, no need to cache their hash
+            int hash = 0;
+            for (Entry entry: children) {
+                hash += entry.hashCode();
+            }
+            return hash;
+        }
+
+        @Override
+        Object kvreduce(final IFn f, final Object init) {
+            Object result = init;
+            for (Entry child: children) {
+                result = f.invoke(result, child.key, child.value);
+                if (RT.isReduced(result)) {
+                    return result;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        Object reduce(final IFn f, final Object init) {
+            Object result = init;
+            for (Entry child: children) {
+                result = f.invoke(result, child);
+                if (RT.isReduced(result)) {
+                    return result;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        Seq seq(final Object root) {
+            return new Seq(root, children[0], 0);
+        }
+
+        @Override
+        Seq next(
+                final Object root,
+                final int shift,
+                final int keyHash,
+                final int entryIndex) {
+            final int nextIndex = entryIndex + 1;
+            if (nextIndex >= children.length) {
+                return null;
+            } else {
+                return new Seq(root, children[nextIndex], nextIndex);
+            }
+        }
+
+        @Override
+        Object getEntryOrCollisionNode(final int shift, final int keyHash) {
+            if (this.keyHash == keyHash) {
+                return this;
+            } else {
+                return null;
+            }
+        }
+
+        @Override
+        int getKeyHash() {
+            return keyHash;
+        }
     }
 
-    private static int arrayIndex(final int shift, final int keyHash) {
+    static int arrayIndex(final int shift, final int keyHash) {
         return (keyHash >>> shift) & 0x1F;
     }
 
-    private static int getKeyHash(final Object node) {
-        final Class<?> nodeClass = node.getClass();
-        if (nodeClass == Entry.class) {
-            return ((Entry) node).keyHash;
-        } else if (nodeClass == CollisionNode.class) {
-            return ((CollisionNode) node).keyHash;
+    // Entries are laid out in the trie in the unsigned order of this
+    // number: the slot at shift 0 becomes its most significant bits,
+    // followed by the slot at shift 5, and so on.
+    static int trieOrder(final int keyHash) {
+        int order = 0;
+        for (int shift = 0; shift < 30; shift += 5) {
+            order = (order << 5) | arrayIndex(shift, keyHash);
+        }
+        return (order << 2) | arrayIndex(30, keyHash);
+    }
+
+    static int bitpos(final int shift, final int keyHash) {
+        return 1 << arrayIndex(shift, keyHash);
+    }
+
+    static int childIndex(final int bitmap, final int bit) {
+        return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    static Object getChild(final ArrayNode node, final int bit) {
+        if ((node.bitmap & bit) == 0) {
+            return null;
         } else {
-            throw new RuntimeException("Unsupported operation");
+            return node.children[childIndex(node.bitmap, bit)];
         }
     }
 
+    static Object[] insertChild(
+            final Object[] children,
+            final int index,
+            final Object child) {
+        final Object[] newChildren = new Object[children.length + 1];
+        System.arraycopy(children, 0, newChildren, 0, index);
+        newChildren[index] = child;
+        System.arraycopy(
+            children, index, newChildren, index + 1, children.length - index);
+        return newChildren;
+    }
+
+    static Object[] trimChildren(
+            final Object[] children,
+            final int childrenCount) {
+        if (childrenCount == children.length) {
+            return children;
+        } else {
+            return Arrays.copyOf(children, childrenCount);
+        }
+    }
+
+    static Object[] removeChild(
+            final Object[] children,
+            final int index) {
+        final Object[] newChildren = new Object[children.length - 1];
+        System.arraycopy(children, 0, newChildren, 0, index);
+        System.arraycopy(
+            children, index + 1,
+            newChildren, index,
+            newChildren.length - index);
+        return newChildren;
+    }
+
+    static Entry[] appendEntry(final Entry[] entries, final Entry entry) {
+        final Entry[] newEntries = Arrays.copyOf(entries, entries.length + 1);
+        newEntries[entries.length] = entry;
+        return newEntries;
+    }
+
+    static Entry[] removeEntry(final Entry[] entries, final int index) {
+        final Entry[] newEntries = new Entry[entries.length - 1];
+        System.arraycopy(entries, 0, newEntries, 0, index);
+        System.arraycopy(
+            entries, index + 1,
+            newEntries, index,
+            newEntries.length - index);
+        return newEntries;
+    }
+
     protected static Object getEntryOrCollisionNode(
             final Object node,
             final int shift,
             final int keyHash) {
-        final Class<?> nodeClass = node.getClass();
-        if (nodeClass == ArrayNode.class) {
-            final Object[] children = ((ArrayNode) node).children;
-            final int childIndex = arrayIndex(shift, keyHash);
-            final Object child = children[childIndex];
-            if (child == null) {
-                return null;
-            } else {
-                return getEntryOrCollisionNode(child, shift + 5, keyHash);
-            }
-        } else if (nodeClass == Entry.class
-                   || nodeClass == CollisionNode.class) {
-            if (getKeyHash(node) == keyHash) {
-                return node;
-            } else {
-                return null;
-            }
-        } else {
-            throw new RuntimeException("Unsupported operation");
-        }
+        return ((Node) node).getEntryOrCollisionNode(shift, keyHash);
     }
 
     public static ArrayNode makeArrayNode(
             final Object node,
             final int shift) {
-        final Object[] children = new Object[32];
-        final int index = arrayIndex(shift, getKeyHash(node));
-        children[index] = node;
-        return new ArrayNode(children, 1, countEntries(node));
+        return makeArrayNode(null, node, shift);
     }
 
-    public static Object assoc(
-            final Object nodeObj,
+    public static ArrayNode makeArrayNode(
+            final Object edit,
+            final Object node,
+            final int shift) {
+        return new ArrayNode(
+            edit,
+            bitpos(shift, ((Node) node).getKeyHash()),
+            new Object[] { node },
+            countEntries(node),
+            hashEntries(node));
+    }
+
+    // Sorts the entries by trieOrder() of their key hashes. Entries with
+    // the same key hash keep their order.
+    static void sortByHash(
+            final Entry[] entries,
+            final int from,
+            final int to,
+            final boolean parallel) {
+        final int count = to - from;
+        // Trie orders with the sign bit flipped, which makes them compare
+        // as signed numbers, followed by the positions of the entries
+        final long[] sortKeys = new long[count];
+        for (int i = 0; i < count; ++ i) {
+            final int order = trieOrder(entries[from + i].keyHash);
+            sortKeys[i] = ((long) (order ^ Integer.MIN_VALUE) << 32) | i;
+        }
+        if (parallel) {
+            Arrays.parallelSort(sortKeys);
+        } else {
+            Arrays.sort(sortKeys);
+        }
+        final Entry[] unsorted = Arrays.copyOfRange(entries, from, to);
+        for (int i = 0; i < count; ++ i) {
+            entries[from + i] = unsorted[(int) sortKeys[i]];
+        }
+    }
+
+    // Builds the same node, as assoc() of the entries in turn would,
+    // provided that the entries are sorted by trieOrder() of their key
+    // hashes (entries with the same key hash in the order of assoc), and
+    // all of them share the slots above the shift. Every node is built
+    // once, with the children it ends up with.
+    static Object fromSortedByHash(
+            final Entry[] entries,
+            final int from,
+            final int to,
             final int shift,
-            final Entry entry) {
-        final Class<?> nodeClass = nodeObj.getClass();
-        if (nodeClass == ArrayNode.class) {
-            final ArrayNode node = (ArrayNode) nodeObj;
-            final int childIndex = arrayIndex(shift, entry.keyHash);
-            final Object child = node.children[childIndex];
-            if (child == null) {
-                final Object[] newChildren = node.children.clone();
-                newChildren[childIndex] = entry;
-                return new ArrayNode(
-                    newChildren,
-                    node.childrenCount + 1,
-                    node.entryCount + 1);
-            } else {
-                final Object newChild = assoc(child, shift + 5, entry);
-                if (child == newChild) {
-                    return node;
-                } else {
-                    final Object[] newChildren = node.children.clone();
-                    newChildren[childIndex] = newChild;
-                    return new ArrayNode(
-                        newChildren,
-                        node.childrenCount,
-                        node.entryCount
-                            + countEntries(newChild)
-                            - countEntries(child));
-                }
-            }
-        } else if (nodeClass == Entry.class) {
-            final Entry node = (Entry) nodeObj;
-            if (Objects.equals(node.key, entry.key)) {
-                if (Objects.equals(node.value, entry.value)) {
-                    return node;
-                } else {
-                    return entry;
-                }
-            } else {
-                if (node.keyHash == entry.keyHash) {
-                    ArrayList<Entry> children = new ArrayList<Entry>();
-                    children.add(node);
-                    children.add(entry);
-                    return new CollisionNode(children, node.keyHash);
-                } else {
-                    return assoc(
-                        makeArrayNode(node, shift), shift, entry);
+            final BiPredicate<Object,Object> valueEquiv) {
+        if (entries[from].keyHash == entries[to - 1].keyHash) {
+            return fromSameHash(entries, from, to, valueEquiv);
+        } else {
+            final Object[] children = new Object[32];
+            int childrenCount = 0;
+            int bitmap = 0;
+            int entryCount = 0;
+            int hash = 0;
+            int childFrom = from;
+            while (childFrom < to) {
+                final int index =
+                    arrayIndex(shift, entries[childFrom].keyHash);
+                int childTo = childFrom + 1;
+                while (childTo < to
+                       && arrayIndex(shift, entries[childTo].keyHash)
+                          == index) {
+                    ++ childTo;
                 }
+                final Node child = (Node) fromSortedByHash(
+                    entries, childFrom, childTo, shift + 5, valueEquiv);
+                children[childrenCount] = child;
+                ++ childrenCount;
+                bitmap |= 1 << index;
+                entryCount += child.countEntries();
+                hash += child.hashEntries();
+                childFrom = childTo;
             }
-        } else if (nodeClass == CollisionNode.class) {
-            final CollisionNode node = (CollisionNode) nodeObj;
-            if (node.keyHash == entry.keyHash) {
+            return new ArrayNode(
+                bitmap,
+                trimChildren(children, childrenCount),
+                entryCount,
+                hash);
+        }
+    }
+
+    // Entries with the same key hash make an Entry or a CollisionNode.
+    // Later entries replace the values of earlier entries with the same
+    // key, but not their positions.
+    private static Object fromSameHash(
+            final Entry[] entries,
+            final int from,
+            final int to,
+            final BiPredicate<Object,Object> valueEquiv) {
+        if (to - from == 1) {
+            return entries[from];
+        } else {
+            final Entry[] children = new Entry[to - from];
+            int childrenCount = 0;
+            for (int i = from; i < to; ++ i) {
+                final Entry entry = entries[i];
                 int childIndex = -1;
-                for (int i = 0; i < node.children.size(); ++ i) {
-                    if (Objects.equals(
-                                node.children.get(i).key, entry.key)) {
-                        childIndex = i;
+                for (int j = 0; j < childrenCount; ++ j) {
+                    if (Objects.equals(children[j].key, entry.key)) {
+                        childIndex = j;
                         break;
                     }
                 }
-                if (childIndex != -1) {
-                    final Entry child = node.children.get(childIndex);
-                    if (Objects.equals(child.value, entry.value)) {
-                        return node;
-                    } else {
-                        final ArrayList<Entry> newChildren =
-                            new ArrayList<>(node.children);
-                        newChildren.set(childIndex, entry);
-                        return new CollisionNode(newChildren, node.keyHash);
-                    }
-                } else {
-                    final ArrayList<Entry> newChildren =
-                        new ArrayList<>(node.children);
-                    newChildren.add(entry);
-                    return new CollisionNode(newChildren, node.keyHash);
+                if (childIndex == -1) {
+                    children[childrenCount] = entry;
+                    ++ childrenCount;
+                } else if (!sameValue(
+                               children[childIndex], entry, valueEquiv)) {
+                    children[childIndex] = entry;
                 }
+            }
+            if (childrenCount == 1) {
+                return children[0];
             } else {
-                return assoc(
-                    makeArrayNode(node, shift), shift, entry);
+                return new CollisionNode(
+                    Arrays.copyOf(children, childrenCount),
+                    entries[from].keyHash);
             }
-        } else {
-            throw new RuntimeException("Unexpected type of node");
         }
     }
 
+    public static Object assoc(
+            final Object node,
+            final int shift,
+            final Entry entry) {
+        return assoc(node, shift, entry, Map.VALUE_EQUALS);
+    }
+
+    public static Object assoc(
+            final Object node,
+            final int shift,
+            final Entry entry,
+            final BiPredicate<Object,Object> valueEquiv) {
+        return ((Node) node).assoc(shift, entry, valueEquiv);
+    }
+
     public static Entry getEntry(
-            final Object nodeObj,
+            final Object node,
             final int shift,
             final int keyHash,
             final Object key) {
-        final Class<?> nodeClass = nodeObj.getClass();
-        if (nodeClass == ArrayNode.class) {
-            final ArrayNode node = (ArrayNode) nodeObj;
-            final int childIndex = arrayIndex(shift, keyHash);
-            final Object child = node.children[childIndex];
-            if (child == null) {
-                return null;
-            } else {
-                return getEntry(child, shift + 5, keyHash, key);
-            }
-        } else if (nodeClass == Entry.class) {
-            final Entry node = (Entry) nodeObj;
-            if (node.keyHash == keyHash) {
-                if (Objects.equals(node.key, key)) {
-                    return node;
-                } else {
-                    return null;
-                }
-            } else {
-                return null;
-            }
-        } else if (nodeClass == CollisionNode.class) {
-            return ((CollisionNode) nodeObj).children
-                .stream()
-                .filter(e -> Objects.equals(e.key, key))
-                .findFirst()
-                .orElse(null);
+        return ((Node) node).getEntry(shift, keyHash, key);
+    }
+
+    public static Object dissoc(
+            final Object node,
+            final int shift,
+            final int keyHash,
+            final Object key) {
+        return ((Node) node).dissoc(shift, keyHash, key);
+    }
+
+    private static ArrayNode editable(
+            final Object edit,
+            final ArrayNode node) {
+        if (node.edit == edit) {
+            return node;
+        } else {
+            return new ArrayNode(
+                edit,
+                node.bitmap,
+                node.children.clone(),
+                node.entryCount,
+                node.hash);
+        }
+    }
+
+    private static CollisionNode editable(
+            final Object edit,
+            final CollisionNode node) {
+        if (node.edit == edit) {
+            return node;
         } else {
-            throw new RuntimeException("Unexpected type of node");
+            return new CollisionNode(
+                edit, node.children.clone(), node.keyHash);
         }
     }
 
+    public static Object assoc(
+            final Object edit,
+            final Object node,
+            final int shift,
+            final Entry entry) {
+        return assoc(edit, node, shift, entry, Map.VALUE_EQUALS);
+    }
+
+    public static Object assoc(
+            final Object edit,
+            final Object node,
+            final int shift,
+            final Entry entry,
+            final BiPredicate<Object,Object> valueEquiv) {
+        return ((Node) node).assoc(edit, shift, entry, valueEquiv);
+    }
+
     public static Object dissoc(
-            final Object nodeObj,
+            final Object edit,
+            final Object node,
             final int shift,
             final int keyHash,
             final Object key) {
-        final Class<?> nodeClass = nodeObj.getClass();
-        if (nodeClass == ArrayNode.class) {
-            final ArrayNode node = (ArrayNode) nodeObj;
-            final Object[] children = node.children;
-            final int childIndex = arrayIndex(shift, keyHash);
-            final Object child = children[childIndex];
-            if (child == null) {
-                return node;
-            } else {
-                final Object newChild =
-                    dissoc(child, shift + 5, keyHash, key);
-                if (child == newChild) {
-                    return node;
-                } else {
-                    final int newChildrenCount = (newChild == null)
-                        ? node.childrenCount - 1
-                        : node.childrenCount;
+        return ((Node) node).dissoc(edit, shift, keyHash, key);
+    }
 
-                    if (newChildrenCount == 0) {
-                        throw new UnsupportedOperationException(
-                            "If no children left, that means that before "
-                            + "this call the ArrayNode had only one entry "
-                            + "under it, which isn't allowed to happen.");
-                    } else if (newChildrenCount == 1) {
-                        // If only one child left and it is not an ArrayNode,
-                        // we should return this child, instead.
-                        if (newChild == null) {
-                            for (int i = 0; i < 32; ++ i) {
-                                final Object ch = children[i];
-                                if (ch != null &&
-                                    ch != child &&
-                                    ch.getClass() != ArrayNode.class) {
-                                    return ch;
-                                }
-                            }
-                        } else {
-                            if (newChild.getClass() != ArrayNode.class) {
-                                return newChild;
-                            }
-                        }
-                    }
+    public static int countEntries(final Object node) {
+        return ((Node) node).countEntries();
+    }
 
-                    final Object[] newChildren = children.clone();
-                    newChildren[childIndex] = newChild;
-                    return new ArrayNode(
-                        newChildren,
-                        newChildrenCount,
-                        node.entryCount - 1);
-                }
-            }
-        } else if (nodeClass == Entry.class) {
-            final Entry node = (Entry) nodeObj;
-            if (Objects.equals(node.key, key)) {
-                return null;
-            } else {
-                return node;
-            }
-        } else if (nodeClass == CollisionNode.class) {
-            final CollisionNode node = (CollisionNode) nodeObj;
-            if (node.keyHash != keyHash) {
-                return node;
-            } else {
-                final Optional<Entry> child = node.children.stream()
-                    .filter(e -> Objects.equals(e.key, key))
-                    .findFirst();
-                if (child.isPresent()) {
-                    if (node.children.size() > 2) {
-                        final ArrayList<Entry> newChildren =
-                            new ArrayList<>(node.children);
-                        newChildren.remove(child.get());
-                        return new CollisionNode(newChildren, keyHash);
-                    } else {
-                        return node.children.stream()
-                            .filter(e -> !Objects.equals(e.key, key))
-                            .findFirst()
-                            .get();
-                    }
-                } else {
-                    return node;
-                }
-            }
-        } else {
-            throw new RuntimeException("Unexpected type of node");
-        }
+    public static int hashEntries(final Object node) {
+        return ((Node) node).hashEntries();
     }
 
-    public static int countEntries(final Object nodeObj) {
-        final Class<?> nodeClass = nodeObj.getClass();
-        if (nodeClass == ArrayNode.class) {
-            return ((ArrayNode) nodeObj).entryCount;
-        } else if (nodeClass == Entry.class) {
-            return 1;
-        } else if (nodeClass == CollisionNode.class) {
-            return ((CollisionNode) nodeObj).children.size();
-        } else {
-            throw new RuntimeException("Unexpected type of node");
-        }
+    public static Object kvreduce(
+            final Object node,
+            final IFn f,
+            final Object init) {
+        return ((Node) node).kvreduce(f, init);
     }
 
-    public static Seq seq(final Object nodeObj, final Object root) {
-        final Class<?> nodeClass = nodeObj.getClass();
-        if (nodeClass == ArrayNode.class) {
-            final ArrayNode node = (ArrayNode) nodeObj;
-            for (Object child: node.children) {
-                if (child != null) {
-                    return seq(child, root);
-                }
-            }
-            throw new RuntimeException(
-                "ArrayNode is supposed to have at least one child");
-        } else if (nodeClass == Entry.class) {
-            return new Seq(root, (Entry) nodeObj, 0);
-        } else if (nodeClass == CollisionNode.class) {
-            final CollisionNode node = (CollisionNode) nodeObj;
-            return new Seq(root, node.children.get(0), 0);
-        } else {
-            throw new RuntimeException("Unexpected type of node");
-        }
+    public static Object reduce(
+            final Object node,
+            final IFn f,
+            final Object init) {
+        return ((Node) node).reduce(f, init);
+    }
+
+    public static Seq seq(final Object node, final Object root) {
+        return ((Node) node).seq(root);
     }
 
     public static Seq next(
-            final Object nodeObj,
+            final Object node,
             final Object root,
             final int shift,
             final int keyHash,
             final int entryIndex) {
-        final Class<?> nodeClass = nodeObj.getClass();
-        if (nodeClass == ArrayNode.class) {
-            final ArrayNode node = (ArrayNode) nodeObj;
-            final Object[] children = node.children;
-            final int childIndex = arrayIndex(shift, keyHash);
-            final Seq s = next(
-                children[childIndex], root, shift + 5, keyHash, entryIndex);
-            if (s != null) {
-                return s;
-            } else {
-                for (int i = childIndex + 1; i < 32; ++ i) {
-                    Object child = children[i];
-                    if (child != null) {
-                        return seq(child, root);
-                    }
-                }
-                return null;
-            }
-        } else if (nodeClass == Entry.class) {
-            return null;
-        } else if (nodeClass == CollisionNode.class) {
-            final CollisionNode node = (CollisionNode) nodeObj;
-            final int nextIndex = entryIndex + 1;
-            if (nextIndex >= node.children.size()) {
-                return null;
-            } else {
-                return new Seq(
-                    root, node.children.get(nextIndex), nextIndex);
-            }
+        return ((Node) node).next(root, shift, keyHash, entryIndex);
+    }
+
+    // Value equivalence of withoutKeys() and selectKeys(), which makes
+    // the entries with equal keys match, whatever their values are
+    private static final BiPredicate<Object,Object>
+        ANY_VALUE = (leftValue, rightValue) -> true;
+
+    // Whether two entries with equal keys hold equivalent values. When
+    // the values are compared with equals(), entries with different
+    // hashes must hold different values, so comparing the cached hashes
+    // first avoids calling equals() on the values, which can be
+    // expensive.
+    private static boolean sameValue(
+            final Entry left,
+            final Entry right,
+            final BiPredicate<Object,Object> valueEquiv) {
+        if (left == right) {
+            return true;
+        } else if (valueEquiv == Map.VALUE_EQUALS) {
+            return left.hashCode() == right.hashCode()
+                && Objects.equals(left.value, right.value);
         } else {
-            throw new RuntimeException("Unexpected type of node");
+            return valueEquiv.test(left.value, right.value);
         }
     }
 
+    // Whether entries with equivalent values are equal, so it doesn't
+    // matter which of them is taken, and they always have equal hashes,
+    // so the hash sums of nodes can tell that they differ
+    static boolean interchangeable(
+            final BiPredicate<Object,Object> valueEquiv) {
+        return valueEquiv == Map.VALUE_EQUALS
+            || valueEquiv == Map.VALUE_IDENTITY;
+    }
+
     public static boolean equiv(
             final int shift,
             final Object leftNodeObj,
             final Object rightNodeObj) {
+        return equiv(shift, leftNodeObj, rightNodeObj, Map.VALUE_EQUALS);
+    }
+
+    public static boolean equiv(
+            final int shift,
+            final Object leftNodeObj,
+            final Object rightNodeObj,
+            final BiPredicate<Object,Object> valueEquiv) {
         if (leftNodeObj == rightNodeObj) {
             return true;
         } else if (leftNodeObj != null && rightNodeObj != null) {
@@ -457,10 +1249,21 @@ public class Nodes {
                     final ArrayNode leftNode = (ArrayNode) leftNodeObj;
                     if (rightNodeClass == ArrayNode.class) {
                         final ArrayNode rightNode = (ArrayNode) rightNodeObj;
-                        for (int i = 0; i < 32; ++ i) {
+                        // Both nodes hold the same entries only if they
+                        // occupy the same slots and their entries have
+                        // the same sum of hashes. The opposite isn't true,
+                        // so the entries still need to be compared.
+                        if (leftNode.bitmap != rightNode.bitmap
+                            || (leftNode.hash != rightNode.hash
+                                && interchangeable(valueEquiv))) {
+                            return false;
+                        }
+                        final int childrenCount = leftNode.children.length;
+                        for (int i = 0; i < childrenCount; ++ i) {
                             final Object leftChild = leftNode.children[i];
                             final Object rightChild = rightNode.children[i];
-                            if (!equiv(shift + 5, leftChild, rightChild)) {
+                            if (!equiv(shift + 5, leftChild, rightChild,
+                                       valueEquiv)) {
                                 return false;
                             }
                         }
@@ -483,8 +1286,8 @@ public class Nodes {
                     final Entry leftNode = (Entry) leftNodeObj;
                     if (rightNodeClass == Entry.class) {
                         final Entry rightNode = (Entry) rightNodeObj;
-                        if (Objects.equals(leftNode.key, rightNode.key) &&
-                            Objects.equals(leftNode.value, rightNode.value)) {
+                        if (Objects.equals(leftNode.key, rightNode.key)
+                            && sameValue(leftNode, rightNode, valueEquiv)) {
                             return true;
                         } else {
                             return false;
@@ -508,9 +1311,8 @@ public class Nodes {
                                 leftEntry.keyHash,
                                 leftEntry.key);
                             if (rightEntry == null
-                                || !Objects.equals(
-                                        rightEntry.value,
-                                        leftEntry.value)) {
+                                || !sameValue(
+                                    leftEntry, rightEntry, valueEquiv)) {
                                 return false;
                             }
                         }
@@ -538,17 +1340,65 @@ public class Nodes {
         }
     }
 
+    // Builds the node, which takes place of the ArrayNode, when
+    // the children at the slots of `bits` are replaced with `children`
+    // (null means removed) and the children at other slots are removed.
+    // Returns the node itself, if nothing changes. Compacts `children`
+    // in place.
+    static Object replaceChildren(
+            final ArrayNode node,
+            final int bits,
+            final Object[] children) {
+        int bitmap = 0;
+        int childrenCount = 0;
+        int entryCount = 0;
+        int hash = 0;
+        boolean returnNode = bits == node.bitmap;
+        int remainingBits = bits;
+        for (int i = 0; i < children.length; ++ i) {
+            final int bit = Integer.lowestOneBit(remainingBits);
+            remainingBits ^= bit;
+            final Object child = children[i];
+            if (child != null) {
+                children[childrenCount] = child;
+                childrenCount += 1;
+                bitmap |= bit;
+                entryCount += countEntries(child);
+                hash += hashEntries(child);
+            }
+            if (returnNode && child != node.children[i]) {
+                returnNode = false;
+            }
+        }
+        if (childrenCount == 0) {
+            return null;
+        } else if (returnNode) {
+            return node;
+        } else if (childrenCount == 1
+                   && children[0].getClass() != ArrayNode.class) {
+            // If only one child left and it is not an ArrayNode,
+            // we should return this child, instead.
+            return children[0];
+        } else {
+            return new ArrayNode(
+                bitmap,
+                trimChildren(children, childrenCount),
+                entryCount,
+                hash);
+        }
+    }
+
     private static Object differenceWithEntry(
             final int shift,
             final Object leftNode,
-            final Object rightNode) {
+            final Object rightNode,
+            final BiPredicate<Object,Object> valueEquiv) {
         final Entry rightEntry = (Entry) rightNode;
         final Entry leftEntry = getEntry(
             leftNode, shift, rightEntry.keyHash, rightEntry.key);
         if (leftEntry == null) {
             return leftNode;
-        } else if (leftEntry == rightEntry
-                   || Objects.equals(leftEntry.value, rightEntry.value)) {
+        } else if (sameValue(leftEntry, rightEntry, valueEquiv)) {
             return dissoc(
                 leftNode,
                 shift,
@@ -563,6 +1413,26 @@ public class Nodes {
             final int shift,
             final Object leftNodeObj,
             final Object rightNodeObj) {
+        return difference(
+            shift, leftNodeObj, rightNodeObj, Map.VALUE_EQUALS);
+    }
+
+    // Removes the entries of the left node, whose keys are present in
+    // the right node, regardless of their values
+    public static Object withoutKeys(
+            final int shift,
+            final Object leftNodeObj,
+            final Object rightNodeObj) {
+        return difference(shift, leftNodeObj, rightNodeObj, ANY_VALUE);
+    }
+
+    // Removes the entries of the left node, which the right node maps
+    // to equivalent values
+    public static Object difference(
+            final int shift,
+            final Object leftNodeObj,
+            final Object rightNodeObj,
+            final BiPredicate<Object,Object> valueEquiv) {
         if (leftNodeObj == rightNodeObj) {
             return null;
         } else if (leftNodeObj != null && rightNodeObj != null) {
@@ -572,46 +1442,23 @@ public class Nodes {
                 final ArrayNode leftNode = (ArrayNode) leftNodeObj;
                 if (rightNodeClass == ArrayNode.class) {
                     final ArrayNode rightNode = (ArrayNode) rightNodeObj;
-                    final Object[] children = new Object[32];
-                    int childrenCount = 0;
-                    int entryCount = 0;
-                    boolean returnLeftNode = true;
-                    for (int i = 0; i < 32; ++ i) {
-                        final Object leftChild = leftNode.children[i];
-                        final Object rightChild = rightNode.children[i];
-                        final Object child = difference(
-                            shift + 5, leftChild, rightChild);
-                        children[i] = child;
-                        if (child != null) {
-                            childrenCount += 1;
-                            entryCount += countEntries(child);
-                        }
-                        if (child != leftChild) {
-                            returnLeftNode = false;
-                        }
-                    }
-                    if (childrenCount == 0) {
-                        return null;
-                    } else if (returnLeftNode) {
-                        return leftNode;
-                    } else {
-                        // If only one child left and it is not an ArrayNode,
-                        // we should return this child, instead.
-                        if (childrenCount == 1) {
-                            for (int i = 0; i < 32; ++ i) {
-                                final Object ch = children[i];
-                                if (ch != null &&
-                                    ch.getClass() != ArrayNode.class) {
-                                    return ch;
-                                }
-                            }
-                        }
-                        return new ArrayNode(
-                            children, childrenCount, entryCount);
+                    final Object[] leftChildren = leftNode.children;
+                    final Object[] children = new Object[leftChildren.length];
+                    int leftBits = leftNode.bitmap;
+                    for (int i = 0; i < leftChildren.length; ++ i) {
+                        final int bit = Integer.lowestOneBit(leftBits);
+                        leftBits ^= bit;
+                        children[i] = difference(
+                            shift + 5,
+                            leftChildren[i],
+                            getChild(rightNode, bit),
+                            valueEquiv);
                     }
+                    return replaceChildren(
+                        leftNode, leftNode.bitmap, children);
                 } else if (rightNodeClass == Entry.class) {
                     return differenceWithEntry(
-                        shift, leftNode, rightNodeObj);
+                        shift, leftNode, rightNodeObj, valueEquiv);
                 } else if (rightNodeClass == CollisionNode.class) {
                     final CollisionNode rightNode =
                         (CollisionNode) rightNodeObj;
@@ -623,10 +1470,7 @@ public class Nodes {
                             rightEntry.keyHash,
                             rightEntry.key);
                         if (leftEntry != null
-                            && (leftEntry == rightEntry
-                                || Objects.equals(
-                                    leftEntry.value,
-                                    rightEntry.value))) {
+                            && sameValue(leftEntry, rightEntry, valueEquiv)) {
                             result = dissoc(
                                 result,
                                 shift,
@@ -654,9 +1498,7 @@ public class Nodes {
                         rightNodeObj, shift, leftNode.keyHash, leftNode.key);
                     if (rightEntry == null) {
                         return leftNode;
-                    } else if (leftNode == rightEntry
-                               || Objects.equals(
-                                    leftNode.value, rightEntry.value)) {
+                    } else if (sameValue(leftNode, rightEntry, valueEquiv)) {
                         return null;
                     } else {
                         return leftNode;
@@ -664,8 +1506,7 @@ public class Nodes {
                 } else if (rightNodeClass == Entry.class) {
                     final Entry rightNode = (Entry) rightNodeObj;
                     if (Objects.equals(leftNode.key, rightNode.key)
-                        && Objects.equals(
-                            leftNode.value, rightNode.value)) {
+                        && sameValue(leftNode, rightNode, valueEquiv)) {
                         return null;
                     } else {
                         return leftNode;
@@ -678,32 +1519,35 @@ public class Nodes {
                 final CollisionNode leftNode = (CollisionNode) leftNodeObj;
                 if (rightNodeClass == ArrayNode.class
                     || rightNodeClass == CollisionNode.class) {
-                    final ArrayList<Entry> children = new ArrayList<>();
-                    for (Entry leftEntry: leftNode.children) {
+                    final Entry[] leftChildren = leftNode.children;
+                    final Entry[] children = new Entry[leftChildren.length];
+                    int childrenNum = 0;
+                    for (Entry leftEntry: leftChildren) {
                         final Entry rightEntry = getEntry(
                             rightNodeObj,
                             shift,
                             leftEntry.keyHash,
                             leftEntry.key);
                         if (rightEntry == null
-                            || !Objects.equals(
-                                    rightEntry.value, leftEntry.value)) {
-                            children.add(leftEntry);
+                            || !sameValue(leftEntry, rightEntry, valueEquiv)) {
+                            children[childrenNum] = leftEntry;
+                            ++ childrenNum;
                         }
                     }
-                    final int childrenNum = children.size();
                     if (childrenNum == 0) {
                         return null;
                     } else if (childrenNum == 1) {
-                        return children.get(0);
-                    } else if (childrenNum == leftNode.children.size()) {
+                        return children[0];
+                    } else if (childrenNum == leftChildren.length) {
                         return leftNode;
                     } else {
-                        return new CollisionNode(children, leftNode.keyHash);
+                        return new CollisionNode(
+                            Arrays.copyOf(children, childrenNum),
+                            leftNode.keyHash);
                     }
                 } else if (rightNodeClass == Entry.class) {
                     return differenceWithEntry(
-                        shift, leftNode, rightNodeObj);
+                        shift, leftNode, rightNodeObj, valueEquiv);
                 } else {
                     throw new RuntimeException(
                         "Unexpected type of right node");
@@ -716,10 +1560,118 @@ public class Nodes {
         }
     }
 
+    // Whether all the keys of the left node are present in the right
+    // node, regardless of their values. Stops at the first key missing
+    // from the right node, and skips shared subtrees.
+    public static boolean isSubset(
+            final int shift,
+            final Object leftNodeObj,
+            final Object rightNodeObj) {
+        if (leftNodeObj == rightNodeObj || leftNodeObj == null) {
+            return true;
+        } else if (rightNodeObj == null
+                   || countEntries(leftNodeObj)
+                      > countEntries(rightNodeObj)) {
+            return false;
+        } else {
+            final Class<?> leftNodeClass = leftNodeObj.getClass();
+            if (leftNodeClass == ArrayNode.class) {
+                final ArrayNode leftNode = (ArrayNode) leftNodeObj;
+                final Object[] leftChildren = leftNode.children;
+                if (rightNodeObj.getClass() == ArrayNode.class) {
+                    final ArrayNode rightNode = (ArrayNode) rightNodeObj;
+                    if ((leftNode.bitmap & ~rightNode.bitmap) != 0) {
+                        return false;
+                    }
+                    int leftBits = leftNode.bitmap;
+                    for (int i = 0; i < leftChildren.length; ++ i) {
+                        final int bit = Integer.lowestOneBit(leftBits);
+                        leftBits ^= bit;
+                        if (!isSubset(
+                                shift + 5,
+                                leftChildren[i],
+                                getChild(rightNode, bit))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                } else {
+                    // Entries of an Entry or a CollisionNode are found
+                    // by their key hash at any shift
+                    for (Object leftChild: leftChildren) {
+                        if (!isSubset(
+                                shift + 5, leftChild, rightNodeObj)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+            } else if (leftNodeClass == Entry.class) {
+                final Entry leftNode = (Entry) leftNodeObj;
+                return getEntry(
+                    rightNodeObj, shift, leftNode.keyHash, leftNode.key)
+                    != null;
+            } else if (leftNodeClass == CollisionNode.class) {
+                for (Entry leftEntry: ((CollisionNode) leftNodeObj).children) {
+                    if (getEntry(
+                            rightNodeObj,
+                            shift,
+                            leftEntry.keyHash,
+                            leftEntry.key) == null) {
+                        return false;
+                    }
+                }
+                return true;
+            } else {
+                throw new UnsupportedOperationException();
+            }
+        }
+    }
+
+    private static Object intersectionWithEntry(
+            final int shift,
+            final Object leftNode,
+            final Object rightNode,
+            final BiPredicate<Object,Object> valueEquiv) {
+        final Entry rightEntry = (Entry) rightNode;
+        final Entry leftEntry = getEntry(
+            leftNode, shift, rightEntry.keyHash, rightEntry.key);
+        if (leftEntry == null) {
+            return null;
+        } else if (sameValue(leftEntry, rightEntry, valueEquiv)) {
+            return leftEntry;
+        } else {
+            return null;
+        }
+    }
+
     public static Object intersection(
             final int shift,
             final Object leftNodeObj,
             final Object rightNodeObj) {
+        return intersection(
+            shift, leftNodeObj, rightNodeObj, Map.VALUE_EQUALS);
+    }
+
+    // Keeps the entries of the left node, whose keys are present in
+    // the right node, regardless of their values
+    public static Object selectKeys(
+            final int shift,
+            final Object leftNodeObj,
+            final Object rightNodeObj) {
+        return intersection(shift, leftNodeObj, rightNodeObj, ANY_VALUE);
+    }
+
+    // Keeps the entries of the left node, which the right node maps to
+    // equivalent values. When values are compared with equals() or by
+    // identity, the matching entries are interchangeable, so the nodes
+    // may be swapped. Otherwise, the entries always come from the left
+    // node.
+    public static Object intersection(
+            final int shift,
+            final Object leftNodeObj,
+            final Object rightNodeObj,
+            final BiPredicate<Object,Object> valueEquiv) {
         if (leftNodeObj == rightNodeObj) {
             return leftNodeObj;
         } else if (leftNodeObj != null && rightNodeObj != null) {
@@ -729,54 +1681,50 @@ public class Nodes {
                 final ArrayNode leftNode = (ArrayNode) leftNodeObj;
                 if (rightNodeClass == ArrayNode.class) {
                     final ArrayNode rightNode = (ArrayNode) rightNodeObj;
-                    if (leftNode.entryCount > rightNode.entryCount) {
-                        return intersection(shift, rightNode, leftNode);
+                    if (interchangeable(valueEquiv)
+                        && leftNode.entryCount > rightNode.entryCount) {
+                        return intersection(
+                            shift, rightNode, leftNode, valueEquiv);
                     } else {
-                        final Object[] leftChildren = leftNode.children;
-                        final Object[] rightChildren = rightNode.children;
-                        final Object[] children = new Object[32];
-                        int childrenCount = 0;
-                        int entryCount = 0;
-                        boolean returnLeftNode = true;
-                        for (int i = 0; i < 32; ++ i) {
-                            final Object leftChild = leftChildren[i];
-                            final Object rightChild = rightChildren[i];
-                            final Object child = intersection(
-                                shift + 5, leftChild, rightChild);
-                            children[i] = child;
-                            if (child != null) {
-                                childrenCount += 1;
-                                entryCount += countEntries(child);
-                            }
-                            if (child != leftChild) {
-                                returnLeftNode = false;
-                            }
-                        }
-                        if (childrenCount == 0) {
-                            return null;
-                        } else if (returnLeftNode) {
-                            return leftNode;
-                        } else {
-                            // If only one child left and it is not
-                            // an ArrayNode, we should return this child,
-                            // instead.
-                            if (childrenCount == 1) {
-                                for (int i = 0; i < 32; ++ i) {
-                                    final Object ch = children[i];
-                                    if (ch != null &&
-                                        ch.getClass() != ArrayNode.class) {
-                                        return ch;
-                                    }
-                                }
-                            }
-                            return new ArrayNode(
-                                children, childrenCount, entryCount);
+                        // Only the slots occupied in both nodes can have
+                        // anything in common
+                        final int commonBitmap =
+                            leftNode.bitmap & rightNode.bitmap;
+                        final Object[] children =
+                            new Object[Integer.bitCount(commonBitmap)];
+                        int commonBits = commonBitmap;
+                        for (int i = 0; i < children.length; ++ i) {
+                            final int bit = Integer.lowestOneBit(commonBits);
+                            commonBits ^= bit;
+                            children[i] = intersection(
+                                shift + 5,
+                                getChild(leftNode, bit),
+                                getChild(rightNode, bit),
+                                valueEquiv);
                         }
+                        return replaceChildren(
+                            leftNode, commonBitmap, children);
                     }
                 } else if (rightNodeClass == Entry.class) {
-                    return intersection(shift, rightNodeObj, leftNodeObj);
+                    if (!interchangeable(valueEquiv)) {
+                        return intersectionWithEntry(
+                            shift, leftNode, rightNodeObj, valueEquiv);
+                    } else {
+                        return intersection(
+                            shift, rightNodeObj, leftNodeObj, valueEquiv);
+                    }
                 } else if (rightNodeClass == CollisionNode.class) {
-                    return intersection(shift, rightNodeObj, leftNodeObj);
+                    if (!interchangeable(valueEquiv)) {
+                        final Object leftSubNode = getEntryOrCollisionNode(
+                            leftNode,
+                            shift,
+                            ((CollisionNode) rightNodeObj).keyHash);
+                        return intersection(
+                            shift, leftSubNode, rightNodeObj, valueEquiv);
+                    } else {
+                        return intersection(
+                            shift, rightNodeObj, leftNodeObj, valueEquiv);
+                    }
                 } else {
                     throw new RuntimeException(
                         "Unexpected type of right node");
@@ -789,9 +1737,7 @@ public class Nodes {
                         rightNodeObj, shift, leftNode.keyHash, leftNode.key);
                     if (rightEntry == null) {
                         return null;
-                    } else if (leftNode == rightEntry
-                               || Objects.equals(
-                                    leftNode.value, rightEntry.value)) {
+                    } else if (sameValue(leftNode, rightEntry, valueEquiv)) {
                         return leftNode;
                     } else {
                         return null;
@@ -799,8 +1745,7 @@ public class Nodes {
                 } else if (rightNodeClass == Entry.class) {
                     final Entry rightNode = (Entry) rightNodeObj;
                     if (Objects.equals(leftNode.key, rightNode.key)
-                        && Objects.equals(
-                            leftNode.value, rightNode.value)) {
+                        && sameValue(leftNode, rightNode, valueEquiv)) {
                         return leftNode;
                     } else {
                         return null;
@@ -815,37 +1760,50 @@ public class Nodes {
                     return intersection(shift,
                         leftNodeObj,
                         getEntryOrCollisionNode(
-                            rightNodeObj, shift, leftNode.keyHash));
+                            rightNodeObj, shift, leftNode.keyHash),
+                        valueEquiv);
                 } else if (rightNodeClass == Entry.class) {
-                    return intersection(shift, rightNodeObj, leftNodeObj);
+                    if (!interchangeable(valueEquiv)) {
+                        return intersectionWithEntry(
+                            shift, leftNode, rightNodeObj, valueEquiv);
+                    } else {
+                        return intersection(
+                            shift, rightNodeObj, leftNodeObj, valueEquiv);
+                    }
                 } else if (rightNodeClass == CollisionNode.class) {
                     final CollisionNode rightNode =
                         (CollisionNode) rightNodeObj;
                     if (leftNode.keyHash != rightNode.keyHash) {
                         return null;
-                    } else if (leftNode.children.size()
-                               > rightNode.children.size()) {
-                        return intersection(shift, rightNode, leftNode);
+                    } else if (interchangeable(valueEquiv)
+                               && leftNode.children.length
+                                  > rightNode.children.length) {
+                        return intersection(
+                            shift, rightNode, leftNode, valueEquiv);
                     } else {
-                        final ArrayList<Entry> children = new ArrayList<>();
-                        for (Entry le: leftNode.children) {
-                            for (Entry re: rightNode.children) {
-                                if (Objects.equals(le.key, re.key) &&
-                                    Objects.equals(le.value, re.value)) {
-                                    children.add(le);
-                                }
+                        final Entry[] leftChildren = leftNode.children;
+                        final Entry[] children =
+                            new Entry[leftChildren.length];
+                        int childrenNum = 0;
+                        for (Entry le: leftChildren) {
+                            final int index = rightNode.indexOf(le.key);
+                            if (index != -1 && sameValue(
+                                    le, rightNode.children[index],
+                                    valueEquiv)) {
+                                children[childrenNum] = le;
+                                ++ childrenNum;
                             }
                         }
-                        final int childrenNum = children.size();
                         if (childrenNum == 0) {
                             return null;
                         } else if (childrenNum == 1) {
-                            return children.get(0);
-                        } else if (childrenNum == leftNode.children.size()) {
+                            return children[0];
+                        } else if (childrenNum == leftChildren.length) {
                             return leftNode;
                         } else {
                             return new CollisionNode(
-                                children, leftNode.keyHash);
+                                Arrays.copyOf(children, childrenNum),
+                                leftNode.keyHash);
                         }
                     }
                 } else {
@@ -859,4 +1817,213 @@ public class Nodes {
             return null;
         }
     }
+
+    // Merges entries of two nodes. Where both nodes have an entry with
+    // the same key, but different values, the value is chosen by
+    // calling resolver(leftValue, rightValue). Subtrees present on
+    // just one side, or shared by both sides, are reused as is.
+    public static Object merge(
+            final int shift,
+            final Object leftNodeObj,
+            final Object rightNodeObj,
+            final BiFunction<Object,Object,Object> resolver) {
+        return merge(
+            shift, leftNodeObj, rightNodeObj, resolver, Map.VALUE_EQUALS);
+    }
+
+    // The resolver is called only for values that aren't equivalent
+    public static Object merge(
+            final int shift,
+            final Object leftNodeObj,
+            final Object rightNodeObj,
+            final BiFunction<Object,Object,Object> resolver,
+            final BiPredicate<Object,Object> valueEquiv) {
+        if (leftNodeObj == rightNodeObj) {
+            return leftNodeObj;
+        } else if (leftNodeObj == null) {
+            return rightNodeObj;
+        } else if (rightNodeObj == null) {
+            return leftNodeObj;
+        } else {
+            final Class<?> leftNodeClass = leftNodeObj.getClass();
+            final Class<?> rightNodeClass = rightNodeObj.getClass();
+            if (leftNodeClass == ArrayNode.class
+                && rightNodeClass == ArrayNode.class) {
+                final ArrayNode leftNode = (ArrayNode) leftNodeObj;
+                final ArrayNode rightNode = (ArrayNode) rightNodeObj;
+                final int bitmap = leftNode.bitmap | rightNode.bitmap;
+                final Object[] children =
+                    new Object[Integer.bitCount(bitmap)];
+                int entryCount = 0;
+                int hash = 0;
+                boolean returnLeftNode = bitmap == leftNode.bitmap;
+                boolean returnRightNode = bitmap == rightNode.bitmap;
+                int bits = bitmap;
+                for (int i = 0; i < children.length; ++ i) {
+                    final int bit = Integer.lowestOneBit(bits);
+                    bits ^= bit;
+                    final Object leftChild = getChild(leftNode, bit);
+                    final Object rightChild = getChild(rightNode, bit);
+                    final Object child = merge(
+                        shift + 5, leftChild, rightChild, resolver,
+                        valueEquiv);
+                    children[i] = child;
+                    entryCount += countEntries(child);
+                    hash += hashEntries(child);
+                    if (child != leftChild) {
+                        returnLeftNode = false;
+                    }
+                    if (child != rightChild) {
+                        returnRightNode = false;
+                    }
+                }
+                if (returnLeftNode) {
+                    return leftNode;
+                } else if (returnRightNode) {
+                    return rightNode;
+                } else {
+                    return new ArrayNode(
+                        bitmap, children, entryCount, hash);
+                }
+            } else if (rightNodeClass == ArrayNode.class) {
+                return mergeEntries(
+                    shift, rightNodeObj, leftNodeObj, true, resolver,
+                    valueEquiv);
+            } else {
+                return mergeEntries(
+                    shift, leftNodeObj, rightNodeObj, false, resolver,
+                    valueEquiv);
+            }
+        }
+    }
+
+    // Merges the entries of an Entry or a CollisionNode into the node
+    private static Object mergeEntries(
+            final int shift,
+            final Object nodeObj,
+            final Object entriesObj,
+            final boolean entriesOnLeft,
+            final BiFunction<Object,Object,Object> resolver,
+            final BiPredicate<Object,Object> valueEquiv) {
+        final Class<?> entriesClass = entriesObj.getClass();
+        if (entriesClass == Entry.class) {
+            return mergeEntry(
+                shift, nodeObj, (Entry) entriesObj, entriesOnLeft, resolver,
+                valueEquiv);
+        } else if (entriesClass == CollisionNode.class) {
+            Object result = nodeObj;
+            for (Entry entry: ((CollisionNode) entriesObj).children) {
+                result = mergeEntry(
+                    shift, result, entry, entriesOnLeft, resolver,
+                    valueEquiv);
+            }
+            return result;
+        } else {
+            throw new RuntimeException("Unexpected type of node");
+        }
+    }
+
+    private static Object mergeEntry(
+            final int shift,
+            final Object nodeObj,
+            final Entry entry,
+            final boolean entryOnLeft,
+            final BiFunction<Object,Object,Object> resolver,
+            final BiPredicate<Object,Object> valueEquiv) {
+        final Entry existing =
+            getEntry(nodeObj, shift, entry.keyHash, entry.key);
+        if (existing == null) {
+            return assoc(nodeObj, shift, entry, valueEquiv);
+        } else if (sameValue(existing, entry, valueEquiv)) {
+            return nodeObj;
+        } else {
+            final Object value = entryOnLeft
+                ? resolver.apply(entry.value, existing.value)
+                : resolver.apply(existing.value, entry.value);
+            if (value == existing.value) {
+                return nodeObj;
+            } else if (value == entry.value) {
+                return assoc(nodeObj, shift, entry, valueEquiv);
+            } else {
+                return assoc(
+                    nodeObj,
+                    shift,
+                    new Entry(existing.keyHash, existing.key, value),
+                    valueEquiv);
+            }
+        }
+    }
+
+    // Reports the entries, which are different between the nodes, to
+    // the visitor. Skips the subtrees shared by both nodes, so it takes
+    // time proportional to the number of paths that differ.
+    public static void diff(
+            final int shift,
+            final Object oldNodeObj,
+            final Object newNodeObj,
+            final DiffVisitor visitor) {
+        diff(shift, oldNodeObj, newNodeObj, visitor, Map.VALUE_EQUALS);
+    }
+
+    // Entries with equivalent values aren't reported as changed
+    public static void diff(
+            final int shift,
+            final Object oldNodeObj,
+            final Object newNodeObj,
+            final DiffVisitor visitor,
+            final BiPredicate<Object,Object> valueEquiv) {
+        if (oldNodeObj == newNodeObj) {
+            return;
+        } else if (oldNodeObj == null) {
+            final EntryIterator it = new EntryIterator(newNodeObj);
+            while (it.hasNext()) {
+                final Entry entry = it.next();
+                visitor.added(entry.key, entry.value);
+            }
+        } else if (newNodeObj == null) {
+            final EntryIterator it = new EntryIterator(oldNodeObj);
+            while (it.hasNext()) {
+                final Entry entry = it.next();
+                visitor.removed(entry.key, entry.value);
+            }
+        } else if (oldNodeObj.getClass() == ArrayNode.class
+                   && newNodeObj.getClass() == ArrayNode.class) {
+            final ArrayNode oldNode = (ArrayNode) oldNodeObj;
+            final ArrayNode newNode = (ArrayNode) newNodeObj;
+            int bits = oldNode.bitmap | newNode.bitmap;
+            while (bits != 0) {
+                final int bit = Integer.lowestOneBit(bits);
+                bits ^= bit;
+                diff(
+                    shift + 5,
+                    getChild(oldNode, bit),
+                    getChild(newNode, bit),
+                    visitor,
+                    valueEquiv);
+            }
+        } else {
+            // At least one of the nodes is an Entry or a CollisionNode,
+            // so look up the entries of each node in the other one
+            final EntryIterator oldIt = new EntryIterator(oldNodeObj);
+            while (oldIt.hasNext()) {
+                final Entry oldEntry = oldIt.next();
+                final Entry newEntry = getEntry(
+                    newNodeObj, shift, oldEntry.keyHash, oldEntry.key);
+                if (newEntry == null) {
+                    visitor.removed(oldEntry.key, oldEntry.value);
+                } else if (!sameValue(oldEntry, newEntry, valueEquiv)) {
+                    visitor.changed(
+                        oldEntry.key, oldEntry.value, newEntry.value);
+                }
+            }
+            final EntryIterator newIt = new EntryIterator(newNodeObj);
+            while (newIt.hasNext()) {
+                final Entry newEntry = newIt.next();
+                if (getEntry(oldNodeObj, shift, newEntry.keyHash,
+                             newEntry.key) == null) {
+                    visitor.added(newEntry.key, newEntry.value);
+                }
+            }
+        }
+    }
 }
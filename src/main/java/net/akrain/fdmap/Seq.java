@@ -9,13 +9,42 @@ public class Seq implements ISeq {
     public final Nodes.Entry entry;
     public final int entryIndex;
 
+    // If present, the following entries are taken from the iterator,
+    // otherwise they are looked up from the root on each call to next()
+    private final EntryIterator iterator;
+    private Seq _next;
+    private boolean _nextRealized;
+
     public Seq(
             final Object root,
             final Nodes.Entry entry,
             int entryIndex) {
+        this(root, entry, entryIndex, null);
+    }
+
+    private Seq(
+            final Object root,
+            final Nodes.Entry entry,
+            final int entryIndex,
+            final EntryIterator iterator) {
         this.root = root;
         this.entry = entry;
         this.entryIndex = entryIndex;
+        this.iterator = iterator;
+    }
+
+    // Returns a sequence of entries walked by the iterator, or null
+    // if the iterator has no entries left. The iterator shouldn't be
+    // used by anyone else after that.
+    public static Seq fromIterator(
+            final Object root,
+            final EntryIterator iterator) {
+        if (iterator.hasNext()) {
+            final Nodes.Entry entry = iterator.next();
+            return new Seq(root, entry, iterator.entryIndex(), iterator);
+        } else {
+            return null;
+        }
     }
 
     // Implementation of ISeq
@@ -27,7 +56,19 @@ public class Seq implements ISeq {
 
     @Override
     public Seq next() {
-        return Nodes.next(root, root, 0, entry.keyHash, entryIndex);
+        if (iterator == null) {
+            return Nodes.next(root, root, 0, entry.keyHash, entryIndex);
+        } else {
+            // Only the last realized element of the sequence can advance
+            // the shared iterator, so locking the element is enough
+            synchronized (this) {
+                if (!_nextRealized) {
+                    _next = fromIterator(root, iterator);
+                    _nextRealized = true;
+                }
+                return _next;
+            }
+        }
     }
 
     @Override
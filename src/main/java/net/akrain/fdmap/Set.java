@@ -0,0 +1,178 @@
+package net.akrain.fdmap;
+
+import clojure.lang.APersistentSet;
+import clojure.lang.IObj;
+import clojure.lang.IPersistentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.ToIntFunction;
+
+// Persistent set, whose elements are the keys of a Map mapped to null.
+// Since all the values are the same, comparing entries of two sets never
+// gets past Objects.equals(null, null), and the hash of an entry is just
+// the hash of its key, which makes the hash sums of the nodes sums of
+// the hashes of the elements, as java.util.Set requires.
+//
+// The null values still take a field of every Entry: 32 bytes instead
+// of the 24 of a key-only leaf, or 8 of the 52 bytes per element, which
+// the trie of a million elements takes besides the elements themselves.
+// A key-only leaf would be a class of nodes, which every operation of
+// Nodes would have to dispatch on, maps included.
+public class Set extends APersistentSet implements IObj {
+
+    public final Map map;
+    private final IPersistentMap meta;
+
+    private static final Set BLANK = new Set(Map.blank(), null);
+
+    public static Set blank() {
+        return BLANK;
+    }
+
+    public static Set blank(final ToIntFunction<Object> hasher) {
+        final Map blankMap = Map.blank(hasher);
+        if (blankMap == BLANK.map) {
+            return BLANK;
+        } else {
+            return new Set(blankMap, null);
+        }
+    }
+
+    private Set(final Map map, final IPersistentMap meta) {
+        super(map);
+        this.map = map;
+        this.meta = meta;
+    }
+
+    private Set derive(final Map newMap) {
+        if (newMap == map) {
+            return this;
+        } else if (newMap.root == null) {
+            return blank(newMap.keyHasher);
+        } else {
+            return new Set(newMap, null);
+        }
+    }
+
+    public Set conj(final Object key) {
+        return derive(map.assoc(key, null));
+    }
+
+    public Set disj(final Object key) {
+        return derive(map.dissoc(key));
+    }
+
+    public Set union(final Set other) {
+        final Map newMap = map.union(other.map);
+        return newMap == other.map ? other : derive(newMap);
+    }
+
+    public Set difference(final Set other) {
+        return derive(map.difference(other.map));
+    }
+
+    public Set difference(final Set other, final ForkJoinPool pool) {
+        return derive(map.difference(other.map, pool));
+    }
+
+    public Set intersection(final Set other) {
+        final Map newMap = map.intersection(other.map);
+        return newMap == other.map ? other : derive(newMap);
+    }
+
+    public Set intersection(final Set other, final ForkJoinPool pool) {
+        final Map newMap = map.intersection(other.map, pool);
+        return newMap == other.map ? other : derive(newMap);
+    }
+
+    // Stops at the first element missing from the other set, and skips
+    // the subtrees shared by both sets without walking them
+    public boolean isSubsetOf(final Set other) {
+        if (map.keyHasher != other.map.keyHasher) {
+            throw new UnsupportedOperationException(
+                "Can't calculated isSubsetOf of sets that were " +
+                "built with different key-hashers");
+        } else if (count() > other.count()) {
+            return false;
+        } else {
+            return Nodes.isSubset(0, map.root, other.map.root);
+        }
+    }
+
+    // Implementation of IPersistentSet
+
+    @Override
+    public Set disjoin(final Object key) {
+        return disj(key);
+    }
+
+    @Override
+    public boolean contains(final Object key) {
+        return map.containsKey(key);
+    }
+
+    // Returns the element of the set, which is equal to the key
+    @Override
+    public Object get(final Object key) {
+        final Nodes.Entry entry = map.entryAt(key);
+        return entry == null ? null : entry.key;
+    }
+
+    // Implementation of IPersistentCollection
+
+    @Override
+    public Set cons(final Object key) {
+        return conj(key);
+    }
+
+    @Override
+    public Set empty() {
+        if (map.root == null) {
+            return this;
+        } else {
+            return blank(map.keyHasher);
+        }
+    }
+
+    @Override
+    public boolean equiv(final Object otherObj) {
+        if (otherObj instanceof Set
+            && ((Set) otherObj).map.keyHasher == map.keyHasher) {
+            return Nodes.equiv(0, map.root, ((Set) otherObj).map.root);
+        } else {
+            return super.equiv(otherObj);
+        }
+    }
+
+    @Override
+    public boolean equals(final Object otherObj) {
+        if (otherObj instanceof Set
+            && ((Set) otherObj).map.keyHasher == map.keyHasher) {
+            return Nodes.equiv(0, map.root, ((Set) otherObj).map.root);
+        } else {
+            return super.equals(otherObj);
+        }
+    }
+
+    // Same as java.util.Set requires, but maintained by the nodes
+    @Override
+    public int hashCode() {
+        return map.hashCode();
+    }
+
+    // Implementation of IObj
+    // Metadata isn't carried over to the sets derived from this one.
+
+    @Override
+    public IPersistentMap meta() {
+        return meta;
+    }
+
+    @Override
+    public Set withMeta(final IPersistentMap meta) {
+        if (meta == this.meta) {
+            return this;
+        } else {
+            return new Set(map, meta);
+        }
+    }
+}
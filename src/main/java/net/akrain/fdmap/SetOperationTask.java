@@ -0,0 +1,98 @@
+package net.akrain.fdmap;
+
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiPredicate;
+
+// Calculates difference or intersection of two nodes. When both nodes
+// are ArrayNodes and the left one holds more than `threshold` entries,
+// the pairs of their children are processed in parallel. Otherwise,
+// it falls back to the sequential versions of the operations.
+class SetOperationTask extends RecursiveTask<Object> {
+
+    enum Operation { DIFFERENCE, INTERSECTION }
+
+    private final Operation operation;
+    private final int shift;
+    private final Object leftNode;
+    private final Object rightNode;
+    private final long threshold;
+    private final BiPredicate<Object,Object> valueEquiv;
+
+    SetOperationTask(
+            final Operation operation,
+            final int shift,
+            final Object leftNode,
+            final Object rightNode,
+            final long threshold) {
+        this(operation, shift, leftNode, rightNode, threshold,
+            Map.VALUE_EQUALS);
+    }
+
+    SetOperationTask(
+            final Operation operation,
+            final int shift,
+            final Object leftNode,
+            final Object rightNode,
+            final long threshold,
+            final BiPredicate<Object,Object> valueEquiv) {
+        this.operation = operation;
+        this.shift = shift;
+        this.leftNode = leftNode;
+        this.rightNode = rightNode;
+        this.threshold = threshold;
+        this.valueEquiv = valueEquiv;
+    }
+
+    @Override
+    protected Object compute() {
+        if (leftNode != rightNode
+            && leftNode != null
+            && rightNode != null
+            && leftNode.getClass() == Nodes.ArrayNode.class
+            && rightNode.getClass() == Nodes.ArrayNode.class) {
+            Nodes.ArrayNode left = (Nodes.ArrayNode) leftNode;
+            Nodes.ArrayNode right = (Nodes.ArrayNode) rightNode;
+            final int bits;
+            if (operation == Operation.DIFFERENCE) {
+                bits = left.bitmap;
+            } else {
+                // Same as the sequential version, keep the smaller
+                // node on the left, if the entries are interchangeable
+                if (Nodes.interchangeable(valueEquiv)
+                    && left.entryCount > right.entryCount) {
+                    left = (Nodes.ArrayNode) rightNode;
+                    right = (Nodes.ArrayNode) leftNode;
+                }
+                bits = left.bitmap & right.bitmap;
+            }
+            if (left.entryCount > threshold) {
+                final SetOperationTask[] tasks =
+                    new SetOperationTask[Integer.bitCount(bits)];
+                int remainingBits = bits;
+                for (int i = 0; i < tasks.length; ++ i) {
+                    final int bit = Integer.lowestOneBit(remainingBits);
+                    remainingBits ^= bit;
+                    tasks[i] = new SetOperationTask(
+                        operation,
+                        shift + 5,
+                        Nodes.getChild(left, bit),
+                        Nodes.getChild(right, bit),
+                        threshold,
+                        valueEquiv);
+                }
+                invokeAll(tasks);
+                final Object[] children = new Object[tasks.length];
+                for (int i = 0; i < tasks.length; ++ i) {
+                    children[i] = tasks[i].getRawResult();
+                }
+                return Nodes.replaceChildren(left, bits, children);
+            }
+        }
+        if (operation == Operation.DIFFERENCE) {
+            return Nodes.difference(shift, leftNode, rightNode, valueEquiv);
+        } else {
+            return Nodes.intersection(
+                shift, leftNode, rightNode, valueEquiv);
+        }
+    }
+}
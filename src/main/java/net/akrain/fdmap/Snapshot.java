@@ -0,0 +1,584 @@
+package net.akrain.fdmap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.UUID;
+import java.util.function.BiPredicate;
+import java.util.function.ToIntFunction;
+
+// Binary snapshot of the trie of a map. Every node is written as a record,
+// children before their parents, so the nodes are restored exactly as they
+// were: with the same layout, key hashes, entry counts and hash sums. Keys
+// aren't hashed again when they are read, so the map must be read with the
+// same key-hasher it was written with.
+//
+//   header     int MAGIC, int VERSION, long x 2 ID
+//   Entry      byte ENTRY, int keyHash, key, value
+//   Collision  byte COLLISION, int keyHash, int count, count x (key, value)
+//   ArrayNode  byte ARRAY, int bitmap, int entryCount, int hash,
+//              bitCount(bitmap) x long offset of the child record
+//   trailer    byte END, long offset of the root record (-1 if the map is
+//              empty), int entryCount, int hash, int MAGIC
+//
+// Offsets are counted from the start of the snapshot. The trailer has
+// a fixed size, so the root can be found from the end of the snapshot.
+//
+// Every snapshot gets a random ID, which is returned by the writer and
+// can be read back with readId().
+//
+// A delta snapshot holds only the nodes of a map, which aren't shared with
+// the map it was derived from. It starts with DELTA_MAGIC, VERSION, its
+// own ID, and the ID, the entry count and the hash of the base map, and
+// ends with DELTA_MAGIC. The shared nodes are referred to by their
+// positions in the base:
+//
+//   shared     byte SHARED, int shift, int path
+//
+// where path holds the slots of the ArrayNodes leading to the node, at
+// the same bits as the key hashes under the node have them.
+public final class Snapshot {
+
+    static final int MAGIC = 0x46444d53;
+    static final int DELTA_MAGIC = 0x46444d44;
+    static final int VERSION = 2;
+
+    // Size of the header of a full snapshot
+    static final int HEADER_SIZE = 24;
+
+    static final byte END = 0;
+    static final byte ENTRY = 1;
+    static final byte COLLISION = 2;
+    static final byte ARRAY = 3;
+    static final byte SHARED = 4;
+
+    // Size of the trailer, excluding its END tag
+    static final int TRAILER_SIZE = 20;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // Records which are read, but whose parents aren't yet. There are at
+    // most 31 finished siblings waiting at each of the 7 levels of
+    // ArrayNodes, plus the children of the deepest one.
+    private static final int MAX_PENDING = 7 * 31 + 32;
+
+    private Snapshot() {
+    }
+
+    // Returns the ID of the snapshot. The channel is neither closed, nor
+    // flushed beyond the bytes of the snapshot.
+    public static UUID write(
+            final Map map,
+            final WritableByteChannel channel,
+            final Codec keyCodec,
+            final Codec valueCodec) throws IOException {
+        final Writer writer = new Writer(channel, keyCodec, valueCodec);
+        final UUID id = writer.writeHeader(MAGIC);
+        writer.writeTrailer(
+            MAGIC, map, map.root == null ? -1 : writer.writeNode(map.root));
+        return id;
+    }
+
+    // Writes the nodes of the map, which it doesn't share with the base,
+    // walking both trees side by side the same way Nodes.difference()
+    // does. The map must be derived from the base, for the delta to be
+    // any smaller than the full snapshot. The base is identified by the ID
+    // of its snapshot, full or delta. Returns the ID of the delta.
+    public static UUID writeDelta(
+            final Map base,
+            final UUID baseId,
+            final Map map,
+            final WritableByteChannel channel,
+            final Codec keyCodec,
+            final Codec valueCodec) throws IOException {
+        if (base.keyHasher != map.keyHasher) {
+            throw new UnsupportedOperationException(
+                "Can't write a delta of maps that were built with " +
+                "different key-hashers");
+        }
+        final Writer writer = new Writer(channel, keyCodec, valueCodec);
+        final UUID id = writer.writeHeader(DELTA_MAGIC);
+        writer.out.writeLong(baseId.getMostSignificantBits());
+        writer.out.writeLong(baseId.getLeastSignificantBits());
+        writer.out.writeInt(base.count());
+        writer.out.writeInt(base.hashCode());
+        writer.writeTrailer(
+            DELTA_MAGIC,
+            map,
+            map.root == null
+                ? -1
+                : writer.writeDelta(0, map.root, 0, 0, base.root));
+        return id;
+    }
+
+    // ID of a full or delta snapshot, read from its header
+    public static UUID readId(final ReadableByteChannel channel)
+            throws IOException {
+        final DataInputStream in = new DataInputStream(
+            Channels.newInputStream(channel));
+        final int magic = in.readInt();
+        if (magic != MAGIC && magic != DELTA_MAGIC) {
+            throw new IOException("Not a snapshot of a map");
+        }
+        return readVersionAndId(in);
+    }
+
+    public static Map read(
+            final ReadableByteChannel channel,
+            final Codec keyCodec,
+            final Codec valueCodec,
+            final ToIntFunction<Object> hasher) throws IOException {
+        return read(channel, keyCodec, valueCodec, hasher, Map.VALUE_EQUALS);
+    }
+
+    // Reads the snapshot sequentially, checking that the records fit
+    // together. The channel isn't closed, but more bytes than the
+    // snapshot has may be consumed from it.
+    public static Map read(
+            final ReadableByteChannel channel,
+            final Codec keyCodec,
+            final Codec valueCodec,
+            final ToIntFunction<Object> hasher,
+            final BiPredicate<Object,Object> valueEquiv)
+            throws IOException {
+        final Reader reader = new Reader(channel, keyCodec, valueCodec);
+        reader.readHeader(MAGIC);
+        return reader.readRecords(MAGIC, null, hasher, valueEquiv);
+    }
+
+    // Reconstructs the map of a delta snapshot, taking the shared nodes
+    // from the base, which must be the map read from the snapshot with
+    // the base ID. Deltas of deltas are read one after another, each onto
+    // the map read before it.
+    public static Map readDelta(
+            final ReadableByteChannel channel,
+            final Map base,
+            final UUID baseId,
+            final Codec keyCodec,
+            final Codec valueCodec) throws IOException {
+        final Reader reader = new Reader(channel, keyCodec, valueCodec);
+        reader.readHeader(DELTA_MAGIC);
+        final UUID deltaBaseId =
+            new UUID(reader.in.readLong(), reader.in.readLong());
+        if (!deltaBaseId.equals(baseId)) {
+            throw new IOException(
+                "Delta snapshot of another base snapshot: " + deltaBaseId);
+        }
+        // The ID is given by the caller, so check that the base matches
+        // it as far as it can be checked cheaply
+        if (reader.in.readInt() != base.count()
+            || reader.in.readInt() != base.hashCode()) {
+            throw new IOException("Delta snapshot of another base map");
+        }
+        return reader.readRecords(
+            DELTA_MAGIC, base.root, base.keyHasher, base.valueEquiv);
+    }
+
+    static UUID readVersionAndId(final DataInputStream in)
+            throws IOException {
+        final int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException(
+                "Unsupported version of snapshot: " + version);
+        }
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    static IOException corrupted(final String reason) {
+        return new IOException("Corrupted snapshot: " + reason);
+    }
+
+    private static final class Writer {
+
+        final CountingOutputStream counter;
+        final DataOutputStream out;
+        final Codec keyCodec;
+        final Codec valueCodec;
+
+        Writer(
+                final WritableByteChannel channel,
+                final Codec keyCodec,
+                final Codec valueCodec) {
+            this.counter = new CountingOutputStream(
+                new BufferedOutputStream(
+                    Channels.newOutputStream(channel), BUFFER_SIZE));
+            this.out = new DataOutputStream(counter);
+            this.keyCodec = keyCodec;
+            this.valueCodec = valueCodec;
+        }
+
+        UUID writeHeader(final int magic) throws IOException {
+            final UUID id = UUID.randomUUID();
+            out.writeInt(magic);
+            out.writeInt(VERSION);
+            out.writeLong(id.getMostSignificantBits());
+            out.writeLong(id.getLeastSignificantBits());
+            return id;
+        }
+
+        void writeTrailer(
+                final int magic,
+                final Map map,
+                final long rootOffset) throws IOException {
+            out.writeByte(END);
+            out.writeLong(rootOffset);
+            out.writeInt(map.count());
+            out.writeInt(map.hashCode());
+            out.writeInt(magic);
+            out.flush();
+        }
+
+        // Returns the offset of the record of the node
+        long writeNode(final Object nodeObj) throws IOException {
+            final Class<?> nodeClass = nodeObj.getClass();
+            if (nodeClass == Nodes.ArrayNode.class) {
+                final Nodes.ArrayNode node = (Nodes.ArrayNode) nodeObj;
+                final long[] childOffsets = new long[node.children.length];
+                for (int i = 0; i < childOffsets.length; ++ i) {
+                    childOffsets[i] = writeNode(node.children[i]);
+                }
+                return writeArrayNode(node, childOffsets);
+            } else if (nodeClass == Nodes.Entry.class) {
+                final Nodes.Entry node = (Nodes.Entry) nodeObj;
+                final long offset = counter.count;
+                out.writeByte(ENTRY);
+                out.writeInt(node.keyHash);
+                keyCodec.write(node.key, out);
+                valueCodec.write(node.value, out);
+                return offset;
+            } else if (nodeClass == Nodes.CollisionNode.class) {
+                final Nodes.CollisionNode node =
+                    (Nodes.CollisionNode) nodeObj;
+                final long offset = counter.count;
+                out.writeByte(COLLISION);
+                out.writeInt(node.keyHash);
+                out.writeInt(node.children.length);
+                for (Nodes.Entry child: node.children) {
+                    keyCodec.write(child.key, out);
+                    valueCodec.write(child.value, out);
+                }
+                return offset;
+            } else {
+                throw new RuntimeException("Unexpected type of node");
+            }
+        }
+
+        // The base node is the one at the same position in the base
+        // tree, or the leaf of the base, which the node has taken the
+        // place of by growing under it. Either way, the base node is
+        // found in the base tree at baseShift and basePath.
+        long writeDelta(
+                final int shift,
+                final Object nodeObj,
+                final int baseShift,
+                final int basePath,
+                final Object baseNodeObj) throws IOException {
+            if (nodeObj == baseNodeObj) {
+                final long offset = counter.count;
+                out.writeByte(SHARED);
+                out.writeInt(baseShift);
+                out.writeInt(basePath);
+                return offset;
+            } else if (baseNodeObj == null) {
+                return writeNode(nodeObj);
+            } else if (nodeObj.getClass() == Nodes.ArrayNode.class) {
+                final Nodes.ArrayNode node = (Nodes.ArrayNode) nodeObj;
+                final long[] childOffsets = new long[node.children.length];
+                int bits = node.bitmap;
+                for (int i = 0; i < childOffsets.length; ++ i) {
+                    final int bit = Integer.lowestOneBit(bits);
+                    bits ^= bit;
+                    if (baseNodeObj.getClass() == Nodes.ArrayNode.class) {
+                        childOffsets[i] = writeDelta(
+                            shift + 5,
+                            node.children[i],
+                            baseShift + 5,
+                            basePath
+                                | Integer.numberOfTrailingZeros(bit)
+                                    << baseShift,
+                            Nodes.getChild(
+                                (Nodes.ArrayNode) baseNodeObj, bit));
+                    } else {
+                        final int baseKeyHash = leafKeyHash(baseNodeObj);
+                        childOffsets[i] = writeDelta(
+                            shift + 5,
+                            node.children[i],
+                            baseShift,
+                            basePath,
+                            Nodes.bitpos(shift, baseKeyHash) == bit
+                                ? baseNodeObj
+                                : null);
+                    }
+                }
+                return writeArrayNode(node, childOffsets);
+            } else {
+                // The leaf might have been lifted from deeper in the base,
+                // when its siblings were removed
+                final int keyHash = leafKeyHash(nodeObj);
+                Object baseChild = baseNodeObj;
+                int childShift = baseShift;
+                int childPath = basePath;
+                while (baseChild != null
+                       && baseChild.getClass() == Nodes.ArrayNode.class) {
+                    baseChild = Nodes.getChild(
+                        (Nodes.ArrayNode) baseChild,
+                        Nodes.bitpos(childShift, keyHash));
+                    childPath |=
+                        Nodes.arrayIndex(childShift, keyHash) << childShift;
+                    childShift += 5;
+                }
+                if (baseChild == nodeObj) {
+                    return writeDelta(
+                        shift, nodeObj, childShift, childPath, nodeObj);
+                } else {
+                    return writeNode(nodeObj);
+                }
+            }
+        }
+
+        private long writeArrayNode(
+                final Nodes.ArrayNode node,
+                final long[] childOffsets) throws IOException {
+            final long offset = counter.count;
+            out.writeByte(ARRAY);
+            out.writeInt(node.bitmap);
+            out.writeInt(node.entryCount);
+            out.writeInt(node.hash);
+            for (long childOffset: childOffsets) {
+                out.writeLong(childOffset);
+            }
+            return offset;
+        }
+    }
+
+    private static final class Reader {
+
+        final CountingInputStream counter;
+        final DataInputStream in;
+        final Codec keyCodec;
+        final Codec valueCodec;
+
+        Reader(
+                final ReadableByteChannel channel,
+                final Codec keyCodec,
+                final Codec valueCodec) {
+            this.counter = new CountingInputStream(
+                new BufferedInputStream(
+                    Channels.newInputStream(channel), BUFFER_SIZE));
+            this.in = new DataInputStream(counter);
+            this.keyCodec = keyCodec;
+            this.valueCodec = valueCodec;
+        }
+
+        UUID readHeader(final int magic) throws IOException {
+            if (in.readInt() != magic) {
+                throw new IOException(magic == MAGIC
+                    ? "Not a snapshot of a map"
+                    : "Not a delta snapshot of a map");
+            }
+            return readVersionAndId(in);
+        }
+
+        // Reads the records and the trailer. Shared records are only
+        // allowed with the root of a base.
+        Map readRecords(
+                final int magic,
+                final Object baseRoot,
+                final ToIntFunction<Object> hasher,
+                final BiPredicate<Object,Object> valueEquiv)
+                throws IOException {
+            final Object[] nodes = new Object[MAX_PENDING];
+            final long[] offsets = new long[MAX_PENDING];
+            int pending = 0;
+            while (true) {
+                final long offset = counter.count;
+                final byte tag = in.readByte();
+                final Object node;
+                if (tag == END) {
+                    break;
+                } else if (tag == ENTRY) {
+                    node = readEntry(in.readInt());
+                } else if (tag == COLLISION) {
+                    final int keyHash = in.readInt();
+                    final int count = in.readInt();
+                    if (count < 2) {
+                        throw corrupted("collision node of a single entry");
+                    }
+                    final Nodes.Entry[] children = new Nodes.Entry[count];
+                    for (int i = 0; i < children.length; ++ i) {
+                        children[i] = readEntry(keyHash);
+                    }
+                    node = new Nodes.CollisionNode(children, keyHash);
+                } else if (tag == ARRAY) {
+                    final int bitmap = in.readInt();
+                    final int entryCount = in.readInt();
+                    final int hash = in.readInt();
+                    final Object[] children =
+                        new Object[Integer.bitCount(bitmap)];
+                    if (children.length == 0 || children.length > pending) {
+                        throw corrupted("missing children of an ArrayNode");
+                    }
+                    final int first = pending - children.length;
+                    int childrenEntryCount = 0;
+                    int childrenHash = 0;
+                    for (int i = 0; i < children.length; ++ i) {
+                        if (in.readLong() != offsets[first + i]) {
+                            throw corrupted("unexpected offset of a child");
+                        }
+                        children[i] = nodes[first + i];
+                        nodes[first + i] = null;
+                        childrenEntryCount +=
+                            Nodes.countEntries(children[i]);
+                        childrenHash += Nodes.hashEntries(children[i]);
+                    }
+                    if (childrenEntryCount != entryCount
+                        || childrenHash != hash) {
+                        throw corrupted(
+                            "ArrayNode doesn't match its children");
+                    }
+                    pending = first;
+                    node = new Nodes.ArrayNode(
+                        bitmap, children, entryCount, hash);
+                } else if (tag == SHARED && baseRoot != null) {
+                    node = findShared(baseRoot, in.readInt(), in.readInt());
+                } else {
+                    throw corrupted("unknown type of record " + tag);
+                }
+                if (pending == MAX_PENDING) {
+                    throw corrupted("too many records without a parent");
+                }
+                nodes[pending] = node;
+                offsets[pending] = offset;
+                ++ pending;
+            }
+
+            final long rootOffset = in.readLong();
+            final int entryCount = in.readInt();
+            final int hash = in.readInt();
+            if (in.readInt() != magic) {
+                throw corrupted("bad trailer");
+            }
+            if (rootOffset == -1) {
+                if (pending != 0 || entryCount != 0 || hash != 0) {
+                    throw corrupted("records of an empty map");
+                }
+                return Map.blank(hasher, valueEquiv);
+            } else {
+                if (pending != 1
+                    || offsets[0] != rootOffset
+                    || Nodes.countEntries(nodes[0]) != entryCount
+                    || Nodes.hashEntries(nodes[0]) != hash) {
+                    throw corrupted("root doesn't match the trailer");
+                }
+                return new Map(nodes[0], hasher, valueEquiv);
+            }
+        }
+
+        private Nodes.Entry readEntry(final int keyHash) throws IOException {
+            final Object key = keyCodec.read(in);
+            return new Nodes.Entry(keyHash, key, valueCodec.read(in));
+        }
+    }
+
+    private static Object findShared(
+            final Object baseRoot,
+            final int baseShift,
+            final int basePath) throws IOException {
+        if (baseShift < 0 || baseShift > 35 || baseShift % 5 != 0) {
+            throw corrupted("bad shift of a shared node");
+        }
+        Object node = baseRoot;
+        for (int shift = 0; shift < baseShift; shift += 5) {
+            if (node == null || node.getClass() != Nodes.ArrayNode.class) {
+                throw corrupted("shared node is missing from the base");
+            }
+            node = Nodes.getChild(
+                (Nodes.ArrayNode) node, Nodes.bitpos(shift, basePath));
+        }
+        if (node == null) {
+            throw corrupted("shared node is missing from the base");
+        }
+        return node;
+    }
+
+    private static int leafKeyHash(final Object nodeObj) {
+        final Class<?> nodeClass = nodeObj.getClass();
+        if (nodeClass == Nodes.Entry.class) {
+            return ((Nodes.Entry) nodeObj).keyHash;
+        } else if (nodeClass == Nodes.CollisionNode.class) {
+            return ((Nodes.CollisionNode) nodeObj).keyHash;
+        } else {
+            throw new RuntimeException("Unexpected type of node");
+        }
+    }
+
+    // Counts the bytes written by DataOutputStream, which counts them in
+    // an int
+    private static final class CountingOutputStream
+            extends FilterOutputStream {
+
+        long count;
+
+        CountingOutputStream(final OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            ++ count;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len)
+                throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private static final class CountingInputStream
+            extends FilterInputStream {
+
+        long count;
+
+        CountingInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = in.read();
+            if (b != -1) {
+                ++ count;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len)
+                throws IOException {
+            final int n = in.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            final long skipped = in.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package net.akrain.fdmap;
+
+import clojure.lang.AFn;
+import clojure.lang.IPersistentVector;
+import clojure.lang.ISeq;
+import clojure.lang.ITransientAssociative2;
+import clojure.lang.ITransientMap;
+import clojure.lang.RT;
+import java.util.function.BiPredicate;
+import java.util.function.ToIntFunction;
+
+public class TransientMap extends AFn
+        implements ITransientMap, ITransientAssociative2 {
+
+    private final Map source;
+    private final ToIntFunction<Object> keyHasher;
+    private final BiPredicate<Object,Object> valueEquiv;
+    private Object root;
+    private Object edit;
+
+    public TransientMap(final Map source) {
+        this.source = source;
+        this.keyHasher = source.keyHasher;
+        this.valueEquiv = source.valueEquiv;
+        this.root = source.root;
+        this.edit = new Object();
+    }
+
+    private void ensureEditable() {
+        if (edit == null) {
+            throw new IllegalAccessError(
+                "Transient used after persistent! call");
+        }
+    }
+
+    @Override
+    public TransientMap assoc(final Object key, final Object value) {
+        ensureEditable();
+        final Nodes.Entry entry = new Nodes.Entry(
+            keyHasher.applyAsInt(key), key, value);
+        if (root == null) {
+            root = entry;
+        } else {
+            root = Nodes.assoc(edit, root, 0, entry, valueEquiv);
+        }
+        return this;
+    }
+
+    @Override
+    public TransientMap without(final Object key) {
+        ensureEditable();
+        if (root != null) {
+            root = Nodes.dissoc(
+                edit, root, 0, keyHasher.applyAsInt(key), key);
+        }
+        return this;
+    }
+
+    @Override
+    public Map persistent() {
+        ensureEditable();
+        // Nodes owned by this transient become immutable,
+        // because nobody can refer to the edit token anymore
+        edit = null;
+        if (root == source.root) {
+            return source;
+        } else if (root == null) {
+            return Map.blank(keyHasher, valueEquiv);
+        } else {
+            return new Map(root, keyHasher, valueEquiv);
+        }
+    }
+
+    @Override
+    public TransientMap conj(final Object obj) {
+        ensureEditable();
+        if (obj instanceof java.util.Map.Entry) {
+            final java.util.Map.Entry entry = (java.util.Map.Entry) obj;
+            return assoc(entry.getKey(), entry.getValue());
+        } else if (obj instanceof IPersistentVector) {
+            final IPersistentVector vector = (IPersistentVector) obj;
+            if (vector.count() != 2) {
+                throw new IllegalArgumentException(
+                    "Vector arg to map conj must be a pair");
+            }
+            return assoc(vector.nth(0), vector.nth(1));
+        } else {
+            for (ISeq s = RT.seq(obj); s != null; s = s.next()) {
+                final java.util.Map.Entry entry =
+                    (java.util.Map.Entry) s.first();
+                assoc(entry.getKey(), entry.getValue());
+            }
+            return this;
+        }
+    }
+
+    @Override
+    public Nodes.Entry entryAt(final Object key) {
+        ensureEditable();
+        if (root == null) {
+            return null;
+        } else {
+            return Nodes.getEntry(root, 0, keyHasher.applyAsInt(key), key);
+        }
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return entryAt(key) != null;
+    }
+
+    @Override
+    public Object valAt(final Object key) {
+        return valAt(key, null);
+    }
+
+    @Override
+    public Object valAt(final Object key, final Object notFound) {
+        final Nodes.Entry entry = entryAt(key);
+        if (entry == null) {
+            return notFound;
+        } else {
+            return entry.value;
+        }
+    }
+
+    @Override
+    public int count() {
+        ensureEditable();
+        if (root == null) {
+            return 0;
+        } else {
+            return Nodes.countEntries(root);
+        }
+    }
+
+    // Implementation of IFn
+
+    @Override
+    public Object invoke(final Object key) {
+        return valAt(key);
+    }
+
+    @Override
+    public Object invoke(final Object key, final Object notFound) {
+        return valAt(key, notFound);
+    }
+}
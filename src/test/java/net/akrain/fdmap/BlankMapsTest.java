@@ -0,0 +1,96 @@
+package net.akrain.fdmap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiPredicate;
+import java.util.function.ToIntFunction;
+import org.junit.jupiter.api.Test;
+
+public class BlankMapsTest {
+
+    @Test
+    void sameFunctionsSameMap() {
+        final ToIntFunction<Object> hasher = key -> 0;
+        final BiPredicate<Object,Object> valueEquiv = (l, r) -> true;
+        final Map m1 = Map.blank(hasher);
+        final Map m2 = Map.blank(hasher, valueEquiv);
+        assertTrue(Map.blank(hasher) == m1);
+        assertTrue(Map.blank(hasher, Map.VALUE_EQUALS) == m1);
+        assertTrue(Map.blank(hasher, valueEquiv) == m2);
+        assertFalse(m1 == m2);
+        assertTrue(m2.keyHasher == hasher);
+        assertTrue(m2.valueEquiv == valueEquiv);
+        assertTrue(Map.blank(Map.blank().keyHasher) == Map.blank());
+    }
+
+    @Test
+    void concurrentLookups() throws Exception {
+        final int threads = 16;
+        final int hashersCount = 64;
+        final List<ToIntFunction<Object>> hashers = new ArrayList<>();
+        for (int i = 0; i < hashersCount; ++ i) {
+            final int seed = i;
+            hashers.add(key -> seed);
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<Map[]>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; ++ t) {
+                final int offset = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    final Map[] maps = new Map[hashersCount];
+                    for (int i = 0; i < hashersCount; ++ i) {
+                        // Threads register the hashers in different orders
+                        final int index = (i + offset) % hashersCount;
+                        maps[index] = Map.blank(hashers.get(index));
+                    }
+                    return maps;
+                }));
+            }
+            start.countDown();
+            final Map[] expected = futures.get(0).get();
+            for (Future<Map[]> future: futures) {
+                final Map[] maps = future.get();
+                for (int i = 0; i < hashersCount; ++ i) {
+                    assertTrue(maps[i] == expected[i]);
+                    assertTrue(maps[i].keyHasher == hashers.get(i));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void collectedHashersAreRemoved() throws InterruptedException {
+        final ToIntFunction<Object> hasher = key -> 0;
+        final Map blank = Map.blank(hasher);
+        final int registered = BlankMaps.size();
+        registerHashers(100);
+        // The GC isn't bound to collect the hashers on the first request
+        for (int i = 0; i < 100 && BlankMaps.size() > registered; ++ i) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertTrue(BlankMaps.size() <= registered);
+        // The blank maps of reachable hashers stay registered
+        assertTrue(Map.blank(hasher) == blank);
+    }
+
+    // Registers the blank maps of hashers, which aren't referenced
+    // anywhere else, once this returns
+    private static void registerHashers(final int count) {
+        for (int i = 0; i < count; ++ i) {
+            final int seed = i;
+            assertTrue(Map.blank(key -> seed).keyHasher != null);
+        }
+    }
+}
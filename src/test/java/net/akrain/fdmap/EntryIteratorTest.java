@@ -0,0 +1,55 @@
+package net.akrain.fdmap;
+
+import static net.akrain.fdmap.Nodes.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.NoSuchElementException;
+import org.junit.jupiter.api.Test;
+
+public class EntryIteratorTest {
+
+    @Test
+    void empty() {
+        final EntryIterator it = new EntryIterator(null);
+        assertFalse(it.hasNext());
+        assertThrows(NoSuchElementException.class, () -> it.next());
+    }
+
+    @Test
+    void singleEntry() {
+        final Entry e = new Entry(1, 1, 1);
+        final EntryIterator it = new EntryIterator(e);
+        assertTrue(it.next() == e);
+        assertEquals(0, it.entryIndex());
+        assertFalse(it.hasNext());
+    }
+
+    @Test
+    void collisionNode() {
+        final Entry e1 = new Entry(1, 1, 1);
+        final Entry e2 = new Entry(1, 2, 2);
+        final EntryIterator it =
+            new EntryIterator(NodesTest.makeCollisionNode(e1, e2));
+        assertTrue(it.next() == e1);
+        assertEquals(0, it.entryIndex());
+        assertTrue(it.next() == e2);
+        assertEquals(1, it.entryIndex());
+        assertFalse(it.hasNext());
+    }
+
+    @Test
+    void sameOrderAsSeq() {
+        Object root = new Entry(0, 0, 0);
+        for (int i = 1; i < 5000; ++ i) {
+            final int keyHash = (i % 7 == 0) ? i - 1 : i * 0x9E3779B9;
+            root = assoc(root, 0, new Entry(keyHash, i, i));
+        }
+        final EntryIterator it = new EntryIterator(root);
+        for (Seq s = seq(root, root); s != null; s = s.next()) {
+            assertTrue(it.hasNext());
+            assertTrue(it.next() == s.entry);
+            assertEquals(s.entryIndex, it.entryIndex());
+        }
+        assertFalse(it.hasNext());
+    }
+}
@@ -0,0 +1,116 @@
+package net.akrain.fdmap;
+
+import static net.akrain.fdmap.Map.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+public class EntrySpliteratorTest {
+
+    private static Map makeMap(final int size) {
+        final TransientMap t = blank().asTransient();
+        for (int i = 0; i < size; ++ i) {
+            t.assoc(i * 0x9E3779B9, i);
+        }
+        return t.persistent();
+    }
+
+    private static void splitAll(
+            final EntrySpliterator spliterator,
+            final List<EntrySpliterator> result) {
+        final EntrySpliterator prefix = spliterator.trySplit();
+        if (prefix == null) {
+            result.add(spliterator);
+        } else {
+            splitAll(prefix, result);
+            splitAll(spliterator, result);
+        }
+    }
+
+    @Test
+    void empty() {
+        final EntrySpliterator s = blank().spliterator();
+        assertEquals(0, s.estimateSize());
+        assertNull(s.trySplit());
+        assertFalse(s.tryAdvance(e -> fail()));
+    }
+
+    @Test
+    void singleEntry() {
+        final EntrySpliterator s = blank().assoc(1, 2).spliterator();
+        assertEquals(1, s.getExactSizeIfKnown());
+        assertNull(s.trySplit());
+        assertTrue(s.tryAdvance(e -> assertEquals(2, e.value)));
+        assertEquals(0, s.estimateSize());
+        assertFalse(s.tryAdvance(e -> fail()));
+    }
+
+    @Test
+    void characteristics() {
+        final EntrySpliterator s = makeMap(10).spliterator();
+        assertTrue(s.hasCharacteristics(Spliterator.SIZED));
+        assertTrue(s.hasCharacteristics(Spliterator.SUBSIZED));
+        assertTrue(s.hasCharacteristics(Spliterator.IMMUTABLE));
+    }
+
+    @Test
+    void exactSizes() {
+        final Map m = makeMap(100000);
+        final List<EntrySpliterator> parts = new ArrayList<>();
+        splitAll(m.spliterator(), parts);
+        assertTrue(parts.size() > 1000);
+        final HashSet<Object> keys = new HashSet<>();
+        for (EntrySpliterator part: parts) {
+            final long size = part.estimateSize();
+            final int[] count = new int[1];
+            part.forEachRemaining(e -> {
+                count[0] += 1;
+                assertTrue(keys.add(e.key));
+            });
+            assertEquals(size, count[0]);
+            assertEquals(0, part.estimateSize());
+        }
+        assertEquals(100000, keys.size());
+    }
+
+    @Test
+    void noSplitWhileTraversing() {
+        final EntrySpliterator s = makeMap(1000).spliterator();
+        assertTrue(s.tryAdvance(e -> {}));
+        assertNull(s.trySplit());
+        assertEquals(999, s.estimateSize());
+    }
+
+    @Test
+    void streams() {
+        final Map m = makeMap(100000);
+        final long expected = 100000L * 99999L / 2;
+        assertEquals(expected,
+            m.stream().mapToLong(e -> (Integer) e.value).sum());
+        assertEquals(expected,
+            m.parallelStream().mapToLong(e -> (Integer) e.value).sum());
+        assertEquals(expected,
+            m.entrySet().parallelStream()
+                .mapToLong(e -> (Integer) e.getValue()).sum());
+        assertEquals(100000,
+            m.parallelStream()
+                .map(e -> e.key)
+                .collect(Collectors.toSet())
+                .size());
+    }
+
+    @Test
+    void entrySet() {
+        final Map m = blank().assoc(1, 2);
+        assertEquals(1, m.entrySet().size());
+        assertTrue(m.entrySet().contains(java.util.Map.entry(1, 2)));
+        assertFalse(m.entrySet().contains(java.util.Map.entry(1, 3)));
+        assertFalse(m.entrySet().contains(1));
+        assertEquals(java.util.Map.of(1, 2).entrySet(), m.entrySet());
+    }
+}
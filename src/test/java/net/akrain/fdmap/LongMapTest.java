@@ -0,0 +1,194 @@
+package net.akrain.fdmap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.LongToIntFunction;
+import net.jqwik.api.*;
+import org.junit.jupiter.api.Test;
+
+public class LongMapTest {
+
+    private static final LongToIntFunction COLLIDING_HASHER =
+        key -> (int) (key & 0x7) << 20;
+
+    @Test
+    void map() {
+        final LongMap m1 = LongMap.blank();
+        final LongMap m2 = m1.assoc(1L, "1");
+        final LongMap m3 = m2.assoc(1L, "1");
+        final LongMap m4 = m2.assoc(1L, "2");
+        final LongMap m5 = m1.dissoc(1L);
+        final LongMap m6 = m4.dissoc(2L);
+        final LongMap m7 = m2.dissoc(1L);
+        assertNull(m1.get(1L));
+        assertEquals("1", m2.get(1L));
+        assertTrue(m2 == m3);
+        assertEquals("2", m4.get(1L));
+        assertNull(m4.get(2L));
+        assertEquals(42, m4.get(2L, 42));
+        assertTrue(m1 == m5);
+        assertTrue(m4 == m6);
+        assertTrue(m7 == LongMap.blank());
+        assertTrue(m2.containsKey(1L));
+        assertFalse(m2.containsKey(2L));
+        assertTrue(m2.assoc(2L, null).containsKey(2L));
+        assertEquals(0, m1.count());
+        assertEquals(1, m4.count());
+    }
+
+    @Test
+    void keysDifferingInUpperBits() {
+        // Keys with the same hash, but different upper bits
+        final LongMap m = LongMap.blank()
+            .assoc(0x100000001L, "a")
+            .assoc(0L, "b")
+            .assoc(0x100000000L, "c")
+            .assoc(1L, "d");
+        assertEquals(Long.hashCode(0x100000001L), Long.hashCode(0L));
+        assertEquals("a", m.get(0x100000001L));
+        assertEquals("b", m.get(0L));
+        assertEquals("c", m.get(0x100000000L));
+        assertEquals("d", m.get(1L));
+        assertNull(m.get(0x100000002L));
+        assertEquals(4, m.count());
+        final LongMap m2 = m.dissoc(0L);
+        assertNull(m2.get(0L));
+        assertEquals("a", m2.get(0x100000001L));
+        assertEquals(3, m2.count());
+    }
+
+    @Test
+    void collisions() {
+        final LongMap m1 = LongMap.blank(key -> 0)
+            .assoc(1L, "1")
+            .assoc(2L, "2")
+            .assoc(3L, "3");
+        assertEquals(LongNodes.CollisionNode.class, m1.root.getClass());
+        assertEquals("2", m1.get(2L));
+        assertNull(m1.get(4L));
+        final LongMap m2 = m1.dissoc(2L).dissoc(3L);
+        assertEquals(LongNodes.Entry.class, m2.root.getClass());
+        assertEquals("1", m2.get(1L));
+        assertTrue(m2.dissoc(1L).root == null);
+    }
+
+    @Test
+    void setOperations() {
+        LongMap m1 = LongMap.blank();
+        LongMap m2 = LongMap.blank();
+        for (long i = 0; i < 1000; ++ i) {
+            m1 = m1.assoc(i, i);
+            if (i % 3 == 0) {
+                m2 = m2.assoc(i, i);
+            }
+        }
+        m2 = m2.assoc(1000L, 1000L);
+        assertEquals(LongNodes.ArrayNode.class, m1.root.getClass());
+        final LongMap diff = m1.difference(m2);
+        final LongMap inter = m1.intersection(m2);
+        assertEquals(666, diff.count());
+        assertEquals(334, inter.count());
+        for (long i = 0; i < 1000; ++ i) {
+            assertEquals(i % 3 != 0, diff.containsKey(i));
+            assertEquals(i % 3 == 0, inter.containsKey(i));
+        }
+        assertTrue(m1.difference(LongMap.blank()) == m1);
+        assertTrue(m1.difference(m1) == LongMap.blank());
+        assertTrue(m1.intersection(m1) == m1);
+        assertThrows(
+            UnsupportedOperationException.class,
+            () -> diff.difference(LongMap.blank(COLLIDING_HASHER)));
+    }
+
+    @Test
+    void equivAndHash() {
+        LongMap m1 = LongMap.blank();
+        LongMap m2 = LongMap.blank(COLLIDING_HASHER);
+        final HashMap<Long,Object> hmap = new HashMap<>();
+        for (long i = 0; i < 100; ++ i) {
+            m1 = m1.assoc(i, "v" + i);
+            m2 = m2.assoc(99 - i, "v" + (99 - i));
+            hmap.put(i, "v" + i);
+        }
+        assertEquals(m1, m2);
+        assertEquals(m2, m1);
+        assertEquals(hmap.hashCode(), m1.hashCode());
+        assertEquals(hmap.hashCode(), m2.hashCode());
+        assertNotEquals(m1, m1.assoc(0L, "x"));
+        assertNotEquals(m2, m1.assoc(0L, "x"));
+        assertNotEquals(m1, m1.dissoc(0L));
+    }
+
+    @Test
+    void intMap() {
+        IntMap m = IntMap.blank();
+        final HashMap<Integer,Object> hmap = new HashMap<>();
+        for (int i = -100; i < 100; ++ i) {
+            m = m.assoc(i * 7919, i);
+            hmap.put(i * 7919, i);
+        }
+        assertEquals(200, m.count());
+        assertEquals(-5, m.get(-5 * 7919));
+        assertNull(m.get(1));
+        assertTrue(m.dissoc(1) == m);
+        final HashMap<Integer,Object> visited = new HashMap<>();
+        m.forEach((key, value) -> visited.put(key, value));
+        assertEquals(hmap, visited);
+        final IntMap m2 = m.dissoc(0);
+        assertFalse(m2.containsKey(0));
+        assertEquals(199, m2.count());
+        assertEquals(m2, m.difference(IntMap.blank().assoc(0, 0)));
+        assertEquals(1, m.intersection(m2.difference(m2).assoc(0, 0))
+            .count());
+    }
+
+    @Property
+    boolean build(
+            @ForAll("genOps") List<Tuple.Tuple3<Boolean,Long,Integer>> ops,
+            @ForAll boolean colliding) {
+        final HashMap<Long,Object> hmap = new HashMap<>();
+        LongMap lmap = colliding
+            ? LongMap.blank(COLLIDING_HASHER)
+            : LongMap.blank();
+        for (Tuple.Tuple3<Boolean,Long,Integer> op: ops) {
+            if (op.get1()) {
+                hmap.put(op.get2(), op.get3());
+                lmap = lmap.assoc(op.get2(), op.get3());
+            } else {
+                hmap.remove(op.get2());
+                lmap = lmap.dissoc(op.get2());
+            }
+        }
+        assertEquals(hmap.size(), lmap.count());
+        assertEquals(hmap.hashCode(), lmap.hashCode());
+        for (long key = -64; key < 64; ++ key) {
+            assertEquals(hmap.containsKey(key), lmap.containsKey(key));
+            assertEquals(hmap.get(key), lmap.get(key));
+        }
+        final HashMap<Long,Object> visited = new HashMap<>();
+        lmap.forEach((key, value) -> visited.put(key, value));
+        assertEquals(hmap, visited);
+        return true;
+    }
+
+    @Provide
+    Arbitrary<List<Tuple.Tuple3<Boolean,Long,Integer>>> genOps() {
+        return Combinators.combine(
+                Arbitraries.of(true, true, false),
+                Arbitraries.longs().between(-64, 63),
+                Arbitraries.integers().between(0, 3))
+            .as((assoc, key, value) -> Tuple.of(assoc, key, value))
+            .list();
+    }
+
+    @Test
+    void nullHasher() {
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> LongMap.blank(null));
+        assertTrue(Objects.equals(LongMap.blank(), LongMap.blank()));
+    }
+}
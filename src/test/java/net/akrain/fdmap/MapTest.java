@@ -3,9 +3,16 @@ package net.akrain.fdmap;
 import static net.akrain.fdmap.Map.*;
 import static org.junit.jupiter.api.Assertions.*;
 
+import clojure.lang.AFn;
+import clojure.lang.IFn;
+import clojure.lang.IPersistentMap;
+import clojure.lang.Murmur3;
+import clojure.lang.PersistentArrayMap;
+import clojure.lang.Reduced;
 import java.util.function.ToIntFunction;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
 import org.junit.jupiter.api.Test;
 
 public class MapTest {
@@ -144,10 +151,507 @@ public class MapTest {
         assertThrows(NoSuchElementException.class, () -> it.next());
     }
 
+    @Test
+    void keysAndValues() {
+        final Map m = blank().assoc(1, 2).assoc(3, 4);
+        final java.util.Set<Object> keys = new java.util.HashSet<>();
+        final java.util.Set<Object> values = new java.util.HashSet<>();
+        m.keyIterator().forEachRemaining(keys::add);
+        m.valIterator().forEachRemaining(values::add);
+        assertEquals(java.util.Set.of(1, 3), keys);
+        assertEquals(java.util.Set.of(2, 4), values);
+        assertEquals(java.util.Set.of(1, 3), m.keySet());
+        assertEquals(2, m.values().size());
+        assertTrue(m.values().containsAll(java.util.Set.of(2, 4)));
+    }
+
+    @Test
+    void seqRealizedOnce() {
+        Map m = blank();
+        for (int i = 0; i < 100; ++ i) {
+            m = m.assoc(i, i);
+        }
+        final Seq s = m.seq();
+        assertTrue(s.next() == s.next());
+        int count = 0;
+        for (Seq x = s; x != null; x = x.next()) {
+            count += 1;
+        }
+        assertEquals(100, count);
+    }
+
+    @Test
+    void kvreduce() {
+        final ToIntFunction<Object> hasher = (x) -> ((Integer) x) % 10;
+        final TransientMap t = blank(hasher).asTransient();
+        for (int i = 0; i < 100; ++ i) {
+            t.assoc(i, i * 2);
+        }
+        final Map m = t.persistent();
+        final IFn sum = new AFn() {
+            @Override
+            public Object invoke(Object acc, Object k, Object v) {
+                return (Long) acc + (Integer) k + (Integer) v;
+            }
+        };
+        assertEquals(0L, blank().kvreduce(sum, 0L));
+        assertEquals(3L * 4950L, m.kvreduce(sum, 0L));
+
+        final IFn untilLarge = new AFn() {
+            @Override
+            public Object invoke(Object acc, Object k, Object v) {
+                final long result = (Long) acc + 1;
+                return result == 42 ? new Reduced(result) : result;
+            }
+        };
+        assertEquals(42L, m.kvreduce(untilLarge, 0L));
+    }
+
+    @Test
+    void reduce() {
+        final Map m = blank().assoc(1, 2).assoc(3, 4);
+        final IFn sum = new AFn() {
+            @Override
+            public Object invoke(Object acc, Object entry) {
+                return (Integer) acc + (Integer) ((Nodes.Entry) entry).value;
+            }
+        };
+        assertEquals(6, m.reduce(sum, 0));
+        assertEquals(0, blank().reduce(sum, 0));
+        final IFn first = new AFn() {
+            @Override
+            public Object invoke(Object acc, Object entry) {
+                return new Reduced(entry);
+            }
+        };
+        assertTrue(m.reduce(first, null) instanceof Nodes.Entry);
+    }
+
+    @Test
+    void fold() {
+        final ToIntFunction<Object> hasher = (x) -> ((Integer) x) % 1000;
+        final TransientMap t = blank(hasher).asTransient();
+        for (int i = 0; i < 10000; ++ i) {
+            t.assoc(i, i * 2);
+        }
+        final Map m = t.persistent();
+        final IFn combine = new AFn() {
+            @Override
+            public Object invoke() {
+                return 0L;
+            }
+            @Override
+            public Object invoke(Object left, Object right) {
+                return (Long) left + (Long) right;
+            }
+        };
+        final IFn sum = new AFn() {
+            @Override
+            public Object invoke(Object acc, Object k, Object v) {
+                return (Long) acc + (Integer) k + (Integer) v;
+            }
+        };
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertEquals(0L, blank().fold(1, combine, sum, pool));
+            assertEquals(m.kvreduce(sum, 0L), m.fold(1, combine, sum, pool));
+            assertEquals(m.kvreduce(sum, 0L), m.fold(64, combine, sum, pool));
+            assertEquals(
+                m.kvreduce(sum, 0L), m.fold(100000, combine, sum, pool));
+            assertEquals(m.kvreduce(sum, 0L), m.fold(512, combine, sum));
+        } finally {
+            pool.shutdown();
+        }
+
+        final IFn countUntilTen = new AFn() {
+            @Override
+            public Object invoke(Object acc, Object k, Object v) {
+                final long result = (Long) acc + 1;
+                return result == 10 ? new Reduced(result) : result;
+            }
+        };
+        // Reduced values stop only the reduction of their own chunk
+        assertEquals(10L, m.fold(100000, combine, countUntilTen));
+        assertTrue((Long) m.fold(16, combine, countUntilTen) > 10L);
+    }
+
+    @Test
+    void parallelDifferenceAndIntersection() {
+        final int size = (int) PARALLEL_THRESHOLD * 4;
+        final TransientMap t = blank().asTransient();
+        for (int i = 0; i < size; ++ i) {
+            t.assoc(i, i);
+        }
+        final Map m1 = t.persistent();
+        final Map m2 = m1.assoc(size, size).dissoc(0).assoc(1, -1);
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertTrue(m1.difference(m1, pool) == blank());
+            assertTrue(m1.difference(blank(), pool) == m1);
+            assertTrue(m1.intersection(m1, pool) == m1);
+            final Map d12 = m1.difference(m2, pool);
+            assertEquals(2, d12.count());
+            assertEquals(0, d12.get(0));
+            assertEquals(1, d12.get(1));
+            assertTrue(d12.equiv(m1.difference(m2)));
+            final Map d21 = m2.difference(m1, pool);
+            assertTrue(d21.equiv(m2.difference(m1)));
+            final Map i12 = m1.intersection(m2, pool);
+            assertEquals(size - 2, i12.count());
+            assertTrue(i12.equiv(m1.intersection(m2)));
+            assertTrue(i12.equiv(m2.intersection(m1, pool)));
+        } finally {
+            pool.shutdown();
+        }
+        assertThrows(UnsupportedOperationException.class,
+            () -> m1.difference(blank((x) -> 0), ForkJoinPool.commonPool()));
+    }
+
+    @Test
+    void union() {
+        final Map m1 = blank().assoc(1, 1).assoc(2, 2);
+        final Map m2 = m1.assoc(3, 3);
+        final Map m3 = m1.assoc(2, 4);
+        assertTrue(m1.union(m1) == m1);
+        assertTrue(m1.union(blank()) == m1);
+        assertTrue(blank().union(m1) == m1);
+        assertTrue(m1.union(m2) == m2);
+        assertTrue(m2.union(m1) == m2);
+        assertEquals(4, m2.union(m3).get(2));
+        assertEquals(2, m3.union(m2).get(2));
+        assertEquals(3, m2.union(m3).count());
+        final Exception e = assertThrows(
+            UnsupportedOperationException.class,
+            () -> m1.union(blank((x) -> 0)));
+        assertTrue(e.getMessage().contains("union"));
+    }
+
+    @Test
+    void assocAll() {
+        Map m1 = blank();
+        final java.util.HashMap<Object,Object> updates =
+            new java.util.HashMap<>();
+        for (int i = 0; i < 1000; ++ i) {
+            m1 = m1.assoc(i, i);
+            if (i % 3 == 0) {
+                updates.put(i, -i);
+                updates.put(i + 1000, i);
+            }
+        }
+        Map expected = m1;
+        for (java.util.Map.Entry<Object,Object> e: updates.entrySet()) {
+            expected = expected.assoc(e.getKey(), e.getValue());
+        }
+        final Map m2 = m1.assocAll(updates);
+        assertEquals(expected, m2);
+        assertEquals(expected.hashCode(), m2.hashCode());
+        assertEquals(1334, m2.count());
+        assertEquals(-3, m2.get(3));
+        assertEquals(3, m1.get(3));
+        assertEquals(1000, m1.count());
+        assertEquals(expected, m1.assocAll(updates.entrySet()));
+        // The result of the transient must not be modified by later calls
+        assertEquals(m2, m1.assocAll(updates));
+        assertEquals(1334, m2.count());
+
+        assertTrue(m1.assocAll(java.util.List.of()) == m1);
+        assertTrue(m1.assocAll(m1) == m1);
+        assertTrue(m1.assocAll(new java.util.HashMap<>(m1)) == m1);
+        final Map m3 = blank().assoc(1, 2).assoc(2000, 1);
+        assertEquals(m1.union(m3), m1.assocAll(m3));
+        final Map m4 = blank((x) -> 0).assoc(1, 2).assoc(2000, 1);
+        assertEquals(m1.union(m3), m1.assocAll(m4));
+    }
+
+    @Test
+    void fromEntries() {
+        final ToIntFunction<Object> hasher = x -> ((Integer) x) % 100;
+        final java.util.List<Nodes.Entry> entries =
+            new java.util.ArrayList<>();
+        Map expected = blank(hasher);
+        for (int i = 0; i < 1000; ++ i) {
+            entries.add(new Nodes.Entry(0, i, i));
+            expected = expected.assoc(i, i);
+        }
+        entries.add(new Nodes.Entry(0, 5, "five"));
+        expected = expected.assoc(5, "five");
+        final Map m = Map.fromEntries(entries, hasher);
+        assertTrue(m.keyHasher == hasher);
+        assertEquals(expected, m);
+        assertEquals(1000, m.count());
+        assertEquals("five", m.get(5));
+        assertTrue(m.difference(expected) == blank(hasher));
+        assertTrue(expected.intersection(m).equiv(m));
+
+        assertTrue(Map.fromEntries(java.util.List.of()) == blank());
+        assertEquals(
+            blank().assoc(1, 2), Map.fromEntries(blank().assoc(1, 2).entrySet()));
+
+        final Nodes.Entry[] sorted = m.stream()
+            .sorted(HASH_ORDER)
+            .toArray(Nodes.Entry[]::new);
+        assertEquals(m, Map.fromSortedByHash(sorted, hasher));
+        final Nodes.Entry last = sorted[sorted.length - 1];
+        sorted[sorted.length - 1] = sorted[0];
+        sorted[0] = last;
+        assertThrows(IllegalArgumentException.class,
+            () -> Map.fromSortedByHash(sorted, hasher));
+    }
+
+    @Test
+    void parallelBuild() {
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        final ToIntFunction<Object> hasher = x -> ((Integer) x) * 31;
+        final Map built = Map.parallelBuild(
+            java.util.stream.IntStream.range(0, 100000)
+                .parallel()
+                .mapToObj(i -> new Nodes.Entry(0, i % 50000, i)),
+            hasher,
+            pool);
+        Map expected = blank(hasher);
+        for (int i = 0; i < 100000; ++ i) {
+            expected = expected.assoc(i % 50000, i);
+        }
+        assertTrue(built.keyHasher == hasher);
+        assertEquals(expected, built);
+        assertEquals(50000, built.count());
+        assertEquals(99999, built.get(49999));
+        assertTrue(built.difference(expected) == blank(hasher));
+
+        assertTrue(Map.parallelBuild(
+            java.util.stream.Stream.empty(), pool) == blank());
+        final Map collisions = Map.parallelBuild(
+            java.util.stream.Stream.of(
+                new Nodes.Entry(0, 1, 1), new Nodes.Entry(0, 2, 2)),
+            x -> 42,
+            pool);
+        assertEquals(Nodes.CollisionNode.class, collisions.root.getClass());
+        assertEquals(2, collisions.get(2));
+        pool.shutdown();
+    }
+
+    @Test
+    void merge() {
+        final Map m1 = blank().assoc(1, 1).assoc(2, 2);
+        final Map m2 = blank().assoc(2, 20).assoc(3, 30);
+        final Map m = m1.merge(m2, (l, r) -> (Integer) l + (Integer) r);
+        assertEquals(3, m.count());
+        assertEquals(1, m.get(1));
+        assertEquals(22, m.get(2));
+        assertEquals(30, m.get(3));
+        // The resolver is called only for conflicting values
+        assertTrue(m1.merge(m1, (l, r) -> null) == m1);
+        assertTrue(
+            m1.merge(blank().assoc(1, 1), (l, r) -> null).equiv(m1));
+        final Exception e = assertThrows(
+            UnsupportedOperationException.class,
+            () -> m1.merge(blank(x -> 0), (l, r) -> l));
+        assertTrue(e.getMessage().contains("merge"));
+    }
+
+    @Test
+    void diff() {
+        final Map m1 = blank().assoc(1, 1).assoc(2, 2).assoc(3, 3);
+        final Map m2 = m1.dissoc(1).assoc(2, 20).assoc(4, 4);
+        final java.util.List<String> changes = new java.util.ArrayList<>();
+        final DiffVisitor visitor = new DiffVisitor() {
+            public void added(Object key, Object value) {
+                changes.add("+" + key + "=" + value);
+            }
+            public void removed(Object key, Object value) {
+                changes.add("-" + key + "=" + value);
+            }
+            public void changed(Object key, Object oldV, Object newV) {
+                changes.add("~" + key + "=" + oldV + ">" + newV);
+            }
+        };
+        m1.diff(m1, visitor);
+        assertTrue(changes.isEmpty());
+        m1.diff(m2, visitor);
+        assertEquals(
+            java.util.Set.of("-1=1", "~2=2>20", "+4=4"),
+            new java.util.HashSet<>(changes));
+        assertEquals(3, changes.size());
+        changes.clear();
+        blank().diff(m1, visitor);
+        assertEquals(java.util.Set.of("+1=1", "+2=2", "+3=3"),
+            new java.util.HashSet<>(changes));
+        assertThrows(UnsupportedOperationException.class,
+            () -> m1.diff(blank((x) -> 0), visitor));
+    }
+
+    @Test
+    void hash() {
+        final Map m1 = blank().assoc(1, "a").assoc("b", 2).assoc(null, 3);
+        final java.util.HashMap<Object,Object> h =
+            new java.util.HashMap<>();
+        h.put(1, "a");
+        h.put("b", 2);
+        h.put(null, 3);
+        assertEquals(0, blank().hashCode());
+        assertEquals(h.hashCode(), m1.hashCode());
+        assertEquals(Murmur3.hashUnordered(m1), m1.hasheq());
+        assertEquals(
+            m1.hashCode(),
+            m1.dissoc(1).assoc(1, "a").hashCode());
+        assertEquals(m1.hashCode(), m1.withMeta(null).hashCode());
+    }
+
+    @Test
+    void withMeta() {
+        final Map m = blank().assoc(1, 2);
+        final IPersistentMap meta = PersistentArrayMap.EMPTY.assoc("a", 1);
+        final Map mm = m.withMeta(meta);
+        assertNull(m.meta());
+        assertTrue(mm.meta() == meta);
+        assertTrue(mm.withMeta(meta) == mm);
+        assertTrue(mm.root == m.root);
+        assertTrue(mm.equiv(m));
+    }
+
     @Test
     void equivalence() {
         assertTrue(blank().assoc(1, 2).equiv(blank().assoc(1, 2)));
         assertTrue(blank().assoc(1, 2).equiv(java.util.Map.of(1, 2)));
+        final Map m = blank().assoc(1, 2).assoc(3, 4);
+        final Map c = blank((x) -> 0).assoc(1, 2).assoc(3, 4);
+        assertTrue(m.equiv(c));
+        assertTrue(m.equals(c));
+        assertFalse(m.equiv(c.assoc(3, 5)));
+        assertFalse(m.equals(c.assoc(3, 5)));
+        assertTrue(m.equals(blank().assoc(3, 4).assoc(1, 2)));
+        assertFalse(m.equals(m.assoc(1, 3)));
+        assertTrue(m.equals(java.util.Map.of(1, 2, 3, 4)));
+        // Equal hashes don't imply equal values
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        assertFalse(m.assoc(5, "Aa").equiv(m.assoc(5, "BB")));
+        assertFalse(m.assoc(5, "Aa").equals(m.assoc(5, "BB")));
+    }
+
+    @Test
+    void withoutKeys() {
+        final Map m1 = blank().assoc(1, 1).assoc(2, 2).assoc(3, 3);
+        final Map m2 = blank().assoc(2, "2").assoc(4, "4");
+        assertEquals(blank().assoc(1, 1).assoc(3, 3), m1.withoutKeys(m2));
+        assertEquals(m2.dissoc(2), m2.withoutKeys(m1));
+        assertTrue(m1.withoutKeys(blank()) == m1);
+        assertTrue(m1.withoutKeys(m1.assoc(1, 0)) == blank());
+        final Exception e = assertThrows(
+            UnsupportedOperationException.class,
+            () -> m1.withoutKeys(blank(x -> 0)));
+        assertTrue(e.getMessage().contains("withoutKeys"));
+    }
+
+    @Test
+    void selectKeys() {
+        final ToIntFunction<Object> hasher = (x) -> (Integer) x % 4;
+        final Map m1 = blank(hasher).assoc(1, 1).assoc(2, 2).assoc(5, 5);
+        final Map m2 = blank(hasher).assoc(2, "2").assoc(5, "5");
+        final Map m3 = blank(hasher).assoc(2, 2).assoc(5, 5);
+        // Values always come from the left map, even though it's bigger
+        assertEquals(m3, m1.selectKeys(m2));
+        assertEquals(m2, m2.selectKeys(m1));
+        assertEquals(m3.dissoc(5), m1.selectKeys(m2.dissoc(5)));
+        assertEquals(m3.dissoc(2), m1.selectKeys(m2.dissoc(2)));
+        assertTrue(m1.selectKeys(blank(hasher)) == blank(hasher));
+        final Exception e = assertThrows(
+            UnsupportedOperationException.class,
+            () -> m1.selectKeys(blank()));
+        assertTrue(e.getMessage().contains("selectKeys"));
+    }
+
+    @Test
+    void identityValueEquiv() {
+        final ToIntFunction<Object> hasher = blank().keyHasher;
+        final Map blank = blank(hasher, VALUE_IDENTITY);
+        final String a1 = new String("a");
+        final String a2 = new String("a");
+        final Map m1 = blank.assoc(1, a1).assoc(2, "b");
+        final Map m2 = m1.assoc(1, a2);
+        assertTrue(blank == blank(hasher, VALUE_IDENTITY));
+        assertTrue(m1.assoc(1, a1) == m1);
+        assertFalse(m2 == m1);
+        assertTrue(m2.get(1) == a2);
+        assertFalse(m1.equivValues(m2));
+        assertTrue(m1.equiv(m2));
+        assertEquals(blank.assoc(1, a1), m1.difference(m2));
+        assertEquals(blank.assoc(2, "b"), m1.intersection(m2));
+        final java.util.List<Object> changes = new java.util.ArrayList<>();
+        m1.diff(m2, new DiffVisitor() {
+            public void added(Object key, Object value) {
+                changes.add(key);
+            }
+            public void removed(Object key, Object value) {
+                changes.add(key);
+            }
+            public void changed(Object key, Object oldV, Object newV) {
+                changes.add(key);
+            }
+        });
+        assertEquals(java.util.Arrays.asList(1), changes);
+        // Compared with equals() to the maps with other equivalences
+        assertTrue(m1.equiv(blank().assoc(1, a2).assoc(2, "b")));
+        assertTrue(m1.merge(m2, (l, r) -> l).get(1) == a1);
+        assertTrue(m1.union(m2).get(1) == a2);
+    }
+
+    @Test
+    void customValueEquiv() {
+        // Values are equivalent when they have equal first characters
+        final java.util.function.BiPredicate<Object,Object> sameFirst =
+            (l, r) -> ((String) l).charAt(0) == ((String) r).charAt(0);
+        final ToIntFunction<Object> hasher = blank().keyHasher;
+        final Map blank = blank(hasher, sameFirst);
+        Map m1 = blank;
+        Map m2 = blank;
+        for (int i = 0; i < 1000; ++ i) {
+            m1 = m1.assoc(i, "a" + i);
+            m2 = m2.assoc(i, (i % 10 == 0 ? "b" : "a") + i);
+        }
+        final Map m3 = m2.assoc(0, "a");
+        assertTrue(m2.assoc(1, "a") == m2);
+        assertEquals("a", m3.get(0));
+        assertEquals(100, m1.difference(m2).count());
+        assertEquals(900, m1.intersection(m2).count());
+        assertEquals(900, m1.intersection(m2, ForkJoinPool.commonPool())
+            .count());
+        assertEquals(100, m1.difference(m2, ForkJoinPool.commonPool())
+            .count());
+        // Entries of intersection come from the left map
+        assertEquals("a1", m1.intersection(m2.dissoc(0)).get(1));
+        assertEquals("a1", m2.dissoc(0).intersection(m1).get(1));
+        Map m4 = m1;
+        for (int i = 0; i < 1000; ++ i) {
+            m4 = m4.assoc(i, "a");
+        }
+        assertTrue(m4 == m1);
+        // Equivalent values don't have to have equal hashes
+        Map m5 = blank;
+        for (int i = 0; i < 1000; ++ i) {
+            m5 = m5.assoc(i, "ax");
+        }
+        assertNotEquals(m1.hashCode(), m5.hashCode());
+        assertTrue(m1.equivValues(m5));
+        assertTrue(m1.equivValues(m2.difference(m1).union(m1)));
+        assertFalse(m1.equivValues(m2));
+        // Equal maps always have equal hashes
+        assertFalse(m1.equiv(m5));
+        assertFalse(m1.equals(m5));
+        final Map m6 = m1.assoc(0, "a0").assoc(1, "a1");
+        assertTrue(m1.equals(m6) && m1.hashCode() == m6.hashCode());
+        final java.util.HashMap<Object,Object> hmap =
+            new java.util.HashMap<>(m1);
+        assertTrue(m1.equals(hmap) && hmap.equals(m1));
+        assertFalse(m5.equals(hmap) || hmap.equals(m5));
+        assertTrue(m1.equiv(m1.difference(m5).union(m1)));
+        assertTrue(m1.equals(blank(hasher).assocAll(m1)));
+        final Map m7 = m1;
+        assertThrows(UnsupportedOperationException.class,
+            () -> m7.equivValues(blank()));
+        assertThrows(UnsupportedOperationException.class,
+            () -> blank().difference(blank));
+        assertThrows(IllegalArgumentException.class,
+            () -> blank(hasher, null));
     }
 
     @Test
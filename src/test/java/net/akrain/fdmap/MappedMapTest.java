@@ -0,0 +1,201 @@
+package net.akrain.fdmap;
+
+import static net.akrain.fdmap.Map.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class MappedMapTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void mappedMap() throws IOException {
+        Map map = blank();
+        for (int i = 0; i < 100000; ++ i) {
+            map = map.assoc(Integer.toString(i), i);
+        }
+        final Path file = write(map);
+
+        final AtomicInteger read = new AtomicInteger();
+        final MappedMap mapped = open(file, counting(read), map.keyHasher);
+        assertEquals(0, read.get());
+        assertEquals(100000, mapped.count());
+        assertEquals(map.hashCode(), mapped.hashCode());
+        assertEquals(map.hasheq(), mapped.hasheq());
+
+        assertEquals(1234, mapped.get("1234"));
+        assertEquals(1, read.get());
+        assertTrue(mapped.containsKey("99999"));
+        assertFalse(mapped.containsKey("100000"));
+        assertNull(mapped.get("100000"));
+        assertEquals(-1, mapped.valAt("-1", -1));
+        assertTrue(mapped.entryAt("1234") == mapped.entryAt("1234"));
+
+        final List<Object> keys = new ArrayList<>();
+        final Iterator<Nodes.Entry> expected = map.iterator();
+        for (Object entry: mapped) {
+            assertEquals(expected.next(), entry);
+            keys.add(((Nodes.Entry) entry).key);
+        }
+        assertFalse(expected.hasNext());
+        assertEquals(100000, keys.size());
+        // The Map shares the entries read by the iteration
+        assertEquals(100000, read.get());
+        assertTrue(mapped.toMap().entryAt("1234") == mapped.entryAt("1234"));
+        assertEquals(100000, read.get());
+        assertTrue(mapped.equiv(map));
+        assertTrue(map.equiv(mapped));
+
+        // The nodes read so far are shared with the maps derived from it
+        final Nodes.Entry entry = mapped.entryAt("1234");
+        final Map updated = mapped.assoc("100000", 100000);
+        assertTrue(updated.entryAt("1234") == entry);
+        assertTrue(mapped.without("1").entryAt("1234") == entry);
+        assertEquals(100001, updated.count());
+        assertTrue(updated.dissoc("100000").equiv(map));
+        assertTrue(mapped.toMap() == mapped.toMap());
+        assertTrue(mapped.toMap().keyHasher == map.keyHasher);
+        assertTrue(mapped.empty() == blank());
+    }
+
+    @Test
+    void derivedMapsDontReferToTheFile() throws Exception {
+        Map map = blank();
+        for (int i = 0; i < 1000; ++ i) {
+            map = map.assoc(Integer.toString(i), i);
+        }
+        final List<WeakReference<MappedMap>> mapped = new ArrayList<>();
+        final Map updated = assocToMapped(write(map), mapped);
+        // The GC isn't bound to collect the MappedMap on the first request
+        for (int i = 0; i < 100 && mapped.get(0).get() != null; ++ i) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(mapped.get(0).get());
+        assertTrue(updated.equiv(map.assoc("1000", 1000)));
+    }
+
+    // Map derived from a MappedMap, which isn't referenced anywhere else,
+    // once this returns
+    private static Map assocToMapped(
+            final Path file,
+            final List<WeakReference<MappedMap>> mapped)
+            throws IOException {
+        final MappedMap map = open(file, Codec.INTEGER, blank().keyHasher);
+        mapped.add(new WeakReference<>(map));
+        return map.assoc("1000", 1000);
+    }
+
+    @Test
+    void smallMaps() throws IOException {
+        final MappedMap empty =
+            open(write(blank()), Codec.INTEGER, blank().keyHasher);
+        assertEquals(0, empty.count());
+        assertNull(empty.get(1));
+        assertFalse(empty.iterator().hasNext());
+        assertNull(empty.seq());
+        assertTrue(empty.assoc(1, 1).equiv(blank().assoc(1, 1)));
+
+        final ToIntFunction<Object> hasher = x -> ((String) x).length();
+        final Map collisions = blank(hasher)
+            .assoc("a", 1).assoc("b", 2).assoc("cc", 3);
+        final MappedMap mapped =
+            open(write(collisions), Codec.INTEGER, hasher);
+        assertEquals(2, mapped.get("b"));
+        assertEquals(3, mapped.get("cc"));
+        assertNull(mapped.get("d"));
+        assertEquals(3, mapped.seq().count());
+        assertEquals(collisions, mapped);
+        assertTrue(mapped.without("a").equiv(collisions.dissoc("a")));
+
+        final Map collisionRoot = blank(hasher).assoc("a", 1).assoc("b", 2);
+        final MappedMap mappedCollisionRoot =
+            open(write(collisionRoot), Codec.INTEGER, hasher);
+        assertEquals(collisionRoot, mappedCollisionRoot);
+        assertEquals(collisionRoot.keySet(), mappedCollisionRoot.keySet());
+    }
+
+    @Test
+    void notSnapshot() throws IOException {
+        final Path empty = dir.resolve("empty");
+        Files.write(empty, new byte[0]);
+        assertThrows(IOException.class, () ->
+            open(empty, Codec.INTEGER, blank().keyHasher));
+
+        final Path file = write(blank().assoc("1", 1));
+        final byte[] bytes = Files.readAllBytes(file);
+        ++ bytes[bytes.length - 1];
+        Files.write(file, bytes);
+        assertThrows(IOException.class, () ->
+            open(file, Codec.INTEGER, blank().keyHasher));
+
+        // The count of the entries in the trailer
+        final Path badCount = write(blank().assoc("1", 1).assoc("2", 2));
+        final byte[] badCountBytes = Files.readAllBytes(badCount);
+        ++ badCountBytes[badCountBytes.length - 9];
+        Files.write(badCount, badCountBytes);
+        assertThrows(IOException.class, () ->
+            open(badCount, Codec.INTEGER, blank().keyHasher));
+
+        // The count of the entries of the collision node, made negative
+        final ToIntFunction<Object> hasher = x -> ((String) x).length();
+        final Path badCollision =
+            write(blank(hasher).assoc("a", 1).assoc("b", 2));
+        final byte[] badCollisionBytes = Files.readAllBytes(badCollision);
+        badCollisionBytes[Snapshot.HEADER_SIZE + 1 + 4] = (byte) 0x80;
+        Files.write(badCollision, badCollisionBytes);
+        assertThrows(IOException.class, () ->
+            open(badCollision, Codec.INTEGER, hasher));
+    }
+
+    private Path write(final Map map) throws IOException {
+        final Path file = Files.createTempFile(dir, "map", ".snapshot");
+        try (FileChannel channel =
+                FileChannel.open(file, StandardOpenOption.WRITE)) {
+            Snapshot.write(map, channel, Codec.STRING, Codec.INTEGER);
+        }
+        return file;
+    }
+
+    private static MappedMap open(
+            final Path file,
+            final Codec valueCodec,
+            final ToIntFunction<Object> hasher) throws IOException {
+        try (FileChannel channel = FileChannel.open(file)) {
+            return MappedMap.open(channel, Codec.STRING, valueCodec, hasher);
+        }
+    }
+
+    // Counts the values read with it
+    private static Codec counting(final AtomicInteger read) {
+        return new Codec() {
+            @Override
+            public void write(final Object obj, final DataOutput out)
+                    throws IOException {
+                Codec.INTEGER.write(obj, out);
+            }
+
+            @Override
+            public Object read(final DataInput in) throws IOException {
+                read.incrementAndGet();
+                return Codec.INTEGER.read(in);
+            }
+        };
+    }
+}
@@ -3,7 +3,7 @@ package net.akrain.fdmap;
 import static net.akrain.fdmap.Nodes.*;
 import static org.junit.jupiter.api.Assertions.*;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Objects;
 import org.junit.jupiter.api.Test;
 
@@ -32,10 +32,7 @@ public class NodesTest {
     static CollisionNode makeCollisionNode(final Entry e1, final Entry e2) {
         assertTrue(e1.keyHash == e2.keyHash);
         assertFalse(Objects.equals(e1.key, e2.key));
-        final ArrayList<Entry> children = new ArrayList<>();
-        children.add(e1);
-        children.add(e2);
-        return new CollisionNode(children, e1.keyHash);
+        return new CollisionNode(new Entry[] { e1, e2 }, e1.keyHash);
     }
 
     @Test
@@ -57,8 +54,8 @@ public class NodesTest {
         final Entry e1 = new Entry(1, 1, 1);
         final Entry e2 = new Entry(1, 2, 2);
         final CollisionNode n = (CollisionNode) assoc(e1, 0, e2);
-        assertTrue(n.children.contains(e1));
-        assertTrue(n.children.contains(e2));
+        assertTrue(Arrays.asList(n.children).contains(e1));
+        assertTrue(Arrays.asList(n.children).contains(e2));
         assertEquals(1, n.keyHash);
     }
 
@@ -67,9 +64,10 @@ public class NodesTest {
         final Entry e1 = new Entry(1, 1, 1);
         final Entry e2 = new Entry(2, 2, 2);
         final ArrayNode n = (ArrayNode) assoc(e1, 0, e2);
-        assertTrue(n.children[1] == e1);
-        assertTrue(n.children[2] == e2);
-        assertEquals(2, n.childrenCount);
+        assertEquals(0b110, n.bitmap);
+        assertTrue(n.children[0] == e1);
+        assertTrue(n.children[1] == e2);
+        assertEquals(2, n.children.length);
     }
 
     @Test
@@ -93,9 +91,11 @@ public class NodesTest {
         final Entry e2 = new Entry(33, 2, 2);
         final ArrayNode n1 = makeArrayNode(e1, 0);
         final ArrayNode n2 = (ArrayNode) assoc(n1, 0, e2);
-        assertEquals(1, n2.childrenCount);
-        final ArrayNode n3 = (ArrayNode) n2.children[1];
-        assertEquals(2, n3.childrenCount);
+        assertEquals(0b10, n2.bitmap);
+        assertEquals(1, n2.children.length);
+        final ArrayNode n3 = (ArrayNode) n2.children[0];
+        assertEquals(0b11, n3.bitmap);
+        assertEquals(2, n3.children.length);
         assertTrue(n3.children[0] == e1);
         assertTrue(n3.children[1] == e2);
     }
@@ -106,8 +106,9 @@ public class NodesTest {
             new Entry(1, 1, 1), new Entry(1, 2, 2));
         final Entry en = new Entry(2, 3, 3);
         final ArrayNode n = (ArrayNode) assoc(cn, 0, en);
-        assertTrue(n.children[1] == cn);
-        assertTrue(n.children[2] == en);
+        assertEquals(0b110, n.bitmap);
+        assertTrue(n.children[0] == cn);
+        assertTrue(n.children[1] == en);
     }
 
     @Test
@@ -125,9 +126,9 @@ public class NodesTest {
         final Entry e3 = new Entry(1, 3, 3);
         final CollisionNode cn = makeCollisionNode(e1, e2);
         final CollisionNode n = (CollisionNode) assoc(cn, 0, e3);
-        assertTrue(n.children.contains(e1));
-        assertTrue(n.children.contains(e2));
-        assertTrue(n.children.contains(e3));
+        assertTrue(Arrays.asList(n.children).contains(e1));
+        assertTrue(Arrays.asList(n.children).contains(e2));
+        assertTrue(Arrays.asList(n.children).contains(e3));
     }
 
     @Test
@@ -137,9 +138,9 @@ public class NodesTest {
         final Entry e3 = new Entry(1, 2, 3);
         final CollisionNode cn = makeCollisionNode(e1, e2);
         final CollisionNode n = (CollisionNode) assoc(cn, 0, e3);
-        assertTrue(n.children.contains(e1));
-        assertFalse(n.children.contains(e2));
-        assertTrue(n.children.contains(e3));
+        assertTrue(Arrays.asList(n.children).contains(e1));
+        assertFalse(Arrays.asList(n.children).contains(e2));
+        assertTrue(Arrays.asList(n.children).contains(e3));
     }
 
     @Test
@@ -216,6 +217,20 @@ public class NodesTest {
         assertNull(getEntry(dissoc(a5, 0, 2, 2), 0, 2, 2));
     }
 
+    @Test
+    void dissoc_ArrayNode_compactChildren() {
+        final Entry e1 = new Entry(1, 1, 1);
+        final Entry e2 = new Entry(2, 2, 2);
+        final Entry e3 = new Entry(31, 3, 3);
+        final ArrayNode a1 = (ArrayNode) makeNode(e1, e2, e3);
+        assertEquals(0x80000006, a1.bitmap);
+        assertArrayEquals(new Object[] { e1, e2, e3 }, a1.children);
+        final ArrayNode a2 = (ArrayNode) dissoc(a1, 0, 2, 2);
+        assertEquals(0x80000002, a2.bitmap);
+        assertArrayEquals(new Object[] { e1, e3 }, a2.children);
+        assertEquals(2, a2.entryCount);
+    }
+
     @Test
     void dissoc_CollisionNode() {
         final Entry e1 = new Entry(1, 1, 1);
@@ -228,7 +243,7 @@ public class NodesTest {
         final Entry e3 = new Entry(1, 3, 3);
         final CollisionNode c2 = (CollisionNode) assoc(c1, 0, e3);
         final CollisionNode c3 = (CollisionNode) dissoc(c2, 0, 1, 1);
-        assertEquals(2, c3.children.size());
+        assertEquals(2, c3.children.length);
         assertNull(getEntry(c3, 0, 1, 1));
         assertTrue(getEntry(c3, 0, 1, 2) == e2);
         assertTrue(getEntry(c3, 0, 1, 3) == e3);
@@ -239,6 +254,30 @@ public class NodesTest {
         assertTrue(dissoc(cNull, 0, 42, 1) == eNull);
     }
 
+    @Test
+    void editCollisionNode() {
+        final Object edit = new Object();
+        final Entry e1 = new Entry(1, 1, 1);
+        final Entry e2 = new Entry(1, 2, 2);
+        final Entry e3 = new Entry(1, 3, 3);
+        final CollisionNode c1 = makeCollisionNode(e1, e2);
+
+        // Not owned by the edit, so it's copied
+        final CollisionNode c2 = (CollisionNode) assoc(edit, c1, 0, e3);
+        assertTrue(c2 != c1);
+        assertArrayEquals(new Entry[] { e1, e2 }, c1.children);
+        assertArrayEquals(new Entry[] { e1, e2, e3 }, c2.children);
+
+        // Owned by the edit, so it's modified in place
+        final Entry e4 = new Entry(1, 2, 4);
+        assertTrue(assoc(edit, c2, 0, e4) == c2);
+        assertArrayEquals(new Entry[] { e1, e4, e3 }, c2.children);
+        assertTrue(dissoc(edit, c2, 0, 1, 1) == c2);
+        assertArrayEquals(new Entry[] { e4, e3 }, c2.children);
+        assertTrue(dissoc(edit, c2, 0, 1, 3) == e4);
+        assertArrayEquals(new Entry[] { e1, e2 }, c1.children);
+    }
+
     @Test
     void seqEntry() {
         final Entry e = new Entry(1, 1, 1);
@@ -435,7 +474,10 @@ public class NodesTest {
         final Entry e = new Entry(1, 1, 1);
         assertTrue(e.hashCode() == e.hashCode());
         assertTrue(e.hashCode() == new Entry(1, 1, 1).hashCode());
-        assertTrue(e.hashCode() != new Entry(2, 2, 2).hashCode());
+        assertTrue(e.hashCode() != new Entry(2, 2, 3).hashCode());
+        assertEquals(
+            new java.util.AbstractMap.SimpleEntry<>(1, 2).hashCode(),
+            new Entry(1, 1, 2).hashCode());
     }
 
     @Test
@@ -481,6 +523,15 @@ public class NodesTest {
         assertFalse(equiv(0, e, new Entry(1, 2, 2)));
     }
 
+    @Test
+    void equivSameHash() {
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        assertFalse(equiv(0, new Entry(1, 1, "Aa"), new Entry(1, 1, "BB")));
+        assertFalse(equiv(0,
+            makeArrayNode2(new Entry(1, 1, 1), new Entry(2, 2, "Aa"), 0),
+            makeArrayNode2(new Entry(1, 1, 1), new Entry(2, 2, "BB"), 0)));
+    }
+
     @Test
     void equivArrayNode() {
         assertFalse(equiv(0,
@@ -3,12 +3,15 @@ package net.akrain.fdmap;
 import static net.akrain.fdmap.Map.*;
 import static org.junit.jupiter.api.Assertions.*;
 
+import clojure.lang.Murmur3;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import net.jqwik.api.*;
@@ -25,6 +28,48 @@ public class PropertiesTest {
         return true;
     }
 
+    @Property
+    boolean fromEntries(@ForAll("genOpsAndKeys") Tuple opsAndKeys) {
+        final List<Tuple> ops = ((List<Tuple>) opsAndKeys.items().get(0))
+            .stream()
+            .filter(op -> op.items().get(0) == "assoc")
+            .collect(Collectors.toList());
+        final Map expected = applyOps(ops, blank());
+        final Map actual = Map.fromEntries(ops.stream()
+            .map(op -> new Nodes.Entry(
+                0, op.items().get(1), op.items().get(2)))
+            .collect(Collectors.toList()));
+        assertEquals(expected, actual);
+        assertSameTree(expected.root, actual.root);
+        final Map built = Map.parallelBuild(
+            ops.stream().map(op -> new Nodes.Entry(
+                0, op.items().get(1), op.items().get(2))),
+            ForkJoinPool.commonPool());
+        assertSameTree(expected.root, built.root);
+        return true;
+    }
+
+    @Property
+    boolean buildTransient(@ForAll("genOpsAndKeys") Tuple opsAndKeys) {
+        final List<Tuple> ops = (List<Tuple>) opsAndKeys.items().get(0);
+        final Set<Object> keys = (Set<Object>) opsAndKeys.items().get(1);
+        final HashMap<Object,Object> hmap = applyOps(ops, new HashMap<>());
+        final Map source = applyOps(ops.subList(0, ops.size() / 2), blank());
+        final TransientMap tmap = source.asTransient();
+        for (Tuple op: ops.subList(ops.size() / 2, ops.size())) {
+            final String name = (String) op.items().get(0);
+            if (name == "assoc") {
+                tmap.assoc(op.items().get(1), op.items().get(2));
+            } else if (name == "dissoc") {
+                tmap.without(op.items().get(1));
+            }
+        }
+        final Map fdmap = tmap.persistent();
+        assertSimilar(fdmap, hmap, keys);
+        assertTrue(fdmap.equiv(applyOps(ops, blank())));
+        return true;
+    }
+
     @Property
     boolean mapSeq(@ForAll("genOpsAndKeys") Tuple opsAndKeys) {
         final List<Tuple> ops = (List<Tuple>) opsAndKeys.items().get(0);
@@ -89,6 +134,163 @@ public class PropertiesTest {
         return true;
     }
 
+    @Property
+    boolean keysOnly(@ForAll("genDifferenceSamples") Tuple sample) {
+        final Set<Object> keys = (Set<Object>) sample.items().get(0);
+        final List<Tuple> buildOps = (List<Tuple>) sample.items().get(1);
+        final List<Tuple> ops = (List<Tuple>) sample.items().get(2);
+        final HashMap<Object,Object> hmap1 =
+            applyOps(buildOps, new HashMap<>());
+        final HashMap<Object,Object> hmap2 = applyOps(ops, hmap1);
+        final Map fdmap1 = applyOps(buildOps, blank());
+        final Map fdmap2 = applyOps(ops, fdmap1);
+        final Map[][] pairs = { { fdmap1, fdmap2 }, { fdmap2, fdmap1 } };
+        final List<HashMap<Object,Object>> hmaps = Arrays.asList(
+            hmap1, hmap2, hmap1);
+        for (int i = 0; i < 2; ++ i) {
+            final HashMap<Object,Object> without =
+                new HashMap<>(hmaps.get(i));
+            without.keySet().removeAll(hmaps.get(i + 1).keySet());
+            assertSimilar(pairs[i][0].withoutKeys(pairs[i][1]), without, keys);
+            final HashMap<Object,Object> selected =
+                new HashMap<>(hmaps.get(i));
+            selected.keySet().retainAll(hmaps.get(i + 1).keySet());
+            assertSimilar(pairs[i][0].selectKeys(pairs[i][1]), selected, keys);
+        }
+        return true;
+    }
+
+    @Property
+    boolean parallelDifference(@ForAll("genDifferenceSamples") Tuple sample) {
+        final List<Tuple> buildOps = (List<Tuple>) sample.items().get(1);
+        final List<Tuple> ops = (List<Tuple>) sample.items().get(2);
+        final Map fdmap1 = applyOps(buildOps, blank());
+        final Map fdmap2 = applyOps(ops, fdmap1);
+        final Map[][] pairs = { { fdmap1, fdmap2 }, { fdmap2, fdmap1 } };
+        for (Map[] pair: pairs) {
+            final Object left = pair[0].root;
+            final Object right = pair[1].root;
+            assertSameResult(
+                Nodes.difference(0, left, right),
+                new SetOperationTask(
+                    SetOperationTask.Operation.DIFFERENCE,
+                    0, left, right, 0).invoke(),
+                left, right);
+            assertSameResult(
+                Nodes.intersection(0, left, right),
+                new SetOperationTask(
+                    SetOperationTask.Operation.INTERSECTION,
+                    0, left, right, 0).invoke(),
+                left, right);
+        }
+        return true;
+    }
+
+    private static void assertSameResult(
+            final Object expected,
+            final Object actual,
+            final Object left,
+            final Object right) {
+        if (expected == null || actual == null) {
+            assertTrue(expected == actual);
+        } else {
+            assertTrue(Nodes.equiv(0, expected, actual));
+            assertEquals(expected == left, actual == left);
+            assertEquals(expected == right, actual == right);
+        }
+    }
+
+    @Property
+    boolean union(@ForAll("genDifferenceSamples") Tuple sample) {
+        final Set<Object> keys = (Set<Object>) sample.items().get(0);
+        final List<Tuple> buildOps = (List<Tuple>) sample.items().get(1);
+        final List<Tuple> ops = (List<Tuple>) sample.items().get(2);
+
+        final HashMap<Object,Object> hmap1 =
+            applyOps(buildOps, new HashMap<>());
+        final HashMap<Object,Object> hmap2 = applyOps(ops, hmap1);
+        final Map fdmap1 = applyOps(buildOps, blank());
+        final Map fdmap2 = applyOps(ops, fdmap1);
+
+        // Shares no nodes with fdmap1
+        final Map fdmap2Copy = applyOps(ops, applyOps(buildOps, blank()));
+
+        final HashMap<Object,Object> hunion = new HashMap<>(hmap1);
+        hunion.putAll(hmap2);
+        assertSimilar(fdmap1.union(fdmap2), hunion, keys);
+        assertSimilar(fdmap1.union(fdmap2Copy), hunion, keys);
+
+        final HashMap<Object,Object> hmerged = new HashMap<>(hmap2);
+        for (java.util.Map.Entry<Object,Object> e: hmap1.entrySet()) {
+            final Object key = e.getKey();
+            if (!hmerged.containsKey(key)) {
+                hmerged.put(key, e.getValue());
+            } else if (!Objects.equals(hmerged.get(key), e.getValue())) {
+                hmerged.put(
+                    key, Arrays.asList(e.getValue(), hmerged.get(key)));
+            }
+        }
+        assertSimilar(
+            fdmap1.merge(fdmap2, (l, r) -> Arrays.asList(l, r)),
+            hmerged,
+            keys);
+        assertSimilar(
+            fdmap1.merge(fdmap2Copy, (l, r) -> Arrays.asList(l, r)),
+            hmerged,
+            keys);
+
+        return true;
+    }
+
+    @Property
+    boolean diff(@ForAll("genDifferenceSamples") Tuple sample) {
+        final List<Tuple> buildOps = (List<Tuple>) sample.items().get(1);
+        final List<Tuple> ops = (List<Tuple>) sample.items().get(2);
+
+        final HashMap<Object,Object> hmap1 =
+            applyOps(buildOps, new HashMap<>());
+        final HashMap<Object,Object> hmap2 = applyOps(ops, hmap1);
+        final Map fdmap1 = applyOps(buildOps, blank());
+        final Map fdmap2 = applyOps(ops, fdmap1);
+        final Map fdmap2Copy = applyOps(ops, applyOps(buildOps, blank()));
+
+        final List<List<Object>> expected = new ArrayList<>();
+        for (java.util.Map.Entry<Object,Object> e: hmap1.entrySet()) {
+            final Object key = e.getKey();
+            if (!hmap2.containsKey(key)) {
+                expected.add(Arrays.asList("removed", key, e.getValue()));
+            } else if (!Objects.equals(e.getValue(), hmap2.get(key))) {
+                expected.add(Arrays.asList(
+                    "changed", key, e.getValue(), hmap2.get(key)));
+            }
+        }
+        for (java.util.Map.Entry<Object,Object> e: hmap2.entrySet()) {
+            if (!hmap1.containsKey(e.getKey())) {
+                expected.add(
+                    Arrays.asList("added", e.getKey(), e.getValue()));
+            }
+        }
+
+        for (Map other: Arrays.asList(fdmap2, fdmap2Copy)) {
+            final List<List<Object>> changes = new ArrayList<>();
+            fdmap1.diff(other, new DiffVisitor() {
+                public void added(Object key, Object value) {
+                    changes.add(Arrays.asList("added", key, value));
+                }
+                public void removed(Object key, Object value) {
+                    changes.add(Arrays.asList("removed", key, value));
+                }
+                public void changed(Object key, Object oldV, Object newV) {
+                    changes.add(Arrays.asList("changed", key, oldV, newV));
+                }
+            });
+            assertEquals(expected.size(), changes.size());
+            assertTrue(changes.containsAll(expected));
+        }
+
+        return true;
+    }
+
     private static HashMap<Object,Object> applyOps(
             List<Tuple> ops, HashMap<Object,Object> map) {
         map = new HashMap<>(map);
@@ -135,6 +337,40 @@ public class PropertiesTest {
             .map(k -> fdmap.get(k))
             .allMatch(x -> x == null));
         assertEquals(hmap.size(), fdmap.count());
+        assertEquals(hmap.hashCode(), fdmap.hashCode());
+        assertEquals(Murmur3.hashUnordered(fdmap), fdmap.hasheq());
+    }
+
+    // Nodes of the trees are of the same classes, with the same children
+    // in the same order
+    static void assertSameTree(
+            final Object expected,
+            final Object actual) {
+        if (expected == null) {
+            assertNull(actual);
+        } else if (expected.getClass() == Nodes.ArrayNode.class) {
+            assertEquals(Nodes.ArrayNode.class, actual.getClass());
+            final Nodes.ArrayNode e = (Nodes.ArrayNode) expected;
+            final Nodes.ArrayNode a = (Nodes.ArrayNode) actual;
+            assertEquals(e.bitmap, a.bitmap);
+            assertEquals(e.entryCount, a.entryCount);
+            assertEquals(e.hash, a.hash);
+            assertEquals(e.children.length, a.children.length);
+            for (int i = 0; i < e.children.length; ++ i) {
+                assertSameTree(e.children[i], a.children[i]);
+            }
+        } else if (expected.getClass() == Nodes.CollisionNode.class) {
+            assertEquals(Nodes.CollisionNode.class, actual.getClass());
+            final Nodes.CollisionNode e = (Nodes.CollisionNode) expected;
+            final Nodes.CollisionNode a = (Nodes.CollisionNode) actual;
+            assertEquals(e.keyHash, a.keyHash);
+            assertArrayEquals(e.children, a.children);
+        } else {
+            assertEquals(Nodes.Entry.class, actual.getClass());
+            assertEquals(((Nodes.Entry) expected).keyHash,
+                         ((Nodes.Entry) actual).keyHash);
+            assertEquals(expected, actual);
+        }
     }
 
     private static HashMap<Object,Object> hashMapDifference(
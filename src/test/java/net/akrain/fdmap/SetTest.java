@@ -0,0 +1,185 @@
+package net.akrain.fdmap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import clojure.lang.Murmur3;
+import clojure.lang.PersistentHashSet;
+import clojure.lang.PersistentArrayMap;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.jqwik.api.*;
+import net.jqwik.api.constraints.IntRange;
+import org.junit.jupiter.api.Test;
+
+public class SetTest {
+
+    @Test
+    void set() {
+        final Set s1 = Set.blank();
+        final Set s2 = s1.conj(1);
+        final Set s3 = s2.conj(1);
+        final Set s4 = s2.conj(null);
+        final Set s5 = s4.disj(1).disj(null);
+        assertFalse(s1.contains(1));
+        assertTrue(s2.contains(1));
+        assertTrue(s2 == s3);
+        assertTrue(s4.contains(null));
+        assertTrue(s5 == Set.blank());
+        assertTrue(s2.disj(2) == s2);
+        assertEquals(2, s4.count());
+        assertEquals(2, s4.size());
+        assertEquals(1, s4.get(1));
+        assertNull(s4.get(2));
+        assertEquals(1, s2.invoke(1));
+        assertTrue(s4.empty() == Set.blank());
+    }
+
+    @Test
+    void get() {
+        // Returns the element of the set, not the key it's looked up by
+        final String key = new String("key");
+        final Set s = Set.blank().conj(key);
+        assertTrue(s.get(new String("key")) == key);
+    }
+
+    @Test
+    void setOperations() {
+        Set s1 = Set.blank();
+        Set s2 = Set.blank();
+        for (int i = 0; i < 1000; ++ i) {
+            s1 = s1.conj(i);
+            if (i % 3 == 0) {
+                s2 = s2.conj(i);
+            }
+        }
+        final Set diff = s1.difference(s2);
+        final Set inter = s1.intersection(s2);
+        assertEquals(666, diff.count());
+        assertTrue(inter == s2);
+        assertTrue(s2.isSubsetOf(s1));
+        assertFalse(s1.isSubsetOf(s2));
+        assertTrue(diff.union(s2).equals(s1));
+        assertTrue(s1.union(s2) == s1);
+        assertEquals(s1, s2.union(s1));
+        assertTrue(s1.difference(s1) == Set.blank());
+        assertTrue(Set.blank().isSubsetOf(s2));
+        assertThrows(
+            UnsupportedOperationException.class,
+            () -> diff.union(Set.blank(key -> 0)));
+    }
+
+    @Test
+    void isSubsetOf() {
+        final AtomicInteger compared = new AtomicInteger();
+        Set s1 = Set.blank(key -> ((Key) key).value);
+        Set s2 = s1;
+        Set s3 = s1;
+        // Built separately, so the sets share no nodes
+        for (int i = 0; i < 1000; ++ i) {
+            s1 = s1.conj(new Key(i, compared));
+            s2 = s2.conj(new Key(i + 1, compared));
+            s3 = s3.conj(new Key(i, compared));
+        }
+        final Set s4 = s1.disj(new Key(500, compared));
+        compared.set(0);
+        assertTrue(s1.isSubsetOf(s3));
+        assertEquals(1000, compared.get());
+        compared.set(0);
+        // The key hash of 0 comes first in the trie, so the walk stops
+        // at it, before comparing any keys
+        assertFalse(s1.isSubsetOf(s2));
+        assertEquals(0, compared.get());
+        // Rejected by the counts of elements, without a walk
+        assertFalse(s1.isSubsetOf(s4));
+        assertEquals(0, compared.get());
+        assertTrue(s4.isSubsetOf(s1));
+        assertTrue(s1.isSubsetOf(s1));
+        final Set s5 = s1;
+        assertThrows(
+            UnsupportedOperationException.class,
+            () -> s5.isSubsetOf(Set.blank()));
+    }
+
+    @Test
+    void equivalence() {
+        final Set s = Set.blank().conj(1L).conj("2").conj(null);
+        final PersistentHashSet phs =
+            PersistentHashSet.create(1L, "2", null);
+        final HashSet<Object> hs =
+            new HashSet<>(Arrays.asList(1L, "2", null));
+        assertTrue(s.equiv(phs));
+        assertTrue(phs.equiv(s));
+        assertEquals(s, hs);
+        assertEquals(hs, s);
+        assertEquals(hs.hashCode(), s.hashCode());
+        assertEquals(phs.hasheq(), s.hasheq());
+        assertEquals(Murmur3.hashUnordered(hs), s.hasheq());
+        assertNotEquals(s, s.disj(null));
+        assertEquals(s, Set.blank(key -> 0).conj(null).conj("2").conj(1L));
+    }
+
+    @Test
+    void meta() {
+        final PersistentArrayMap meta =
+            new PersistentArrayMap(new Object[] { "a", 1 });
+        final Set s = Set.blank().conj(1).withMeta(meta);
+        assertTrue(s.meta() == meta);
+        assertTrue(s.withMeta(meta) == s);
+        assertNull(s.conj(2).meta());
+    }
+
+    @Property
+    boolean setOperations(
+            @ForAll List<@IntRange(max = 63) Integer> elements1,
+            @ForAll List<@IntRange(max = 63) Integer> elements2) {
+        Set s1 = Set.blank(key -> ((Integer) key) & 0x7);
+        Set s2 = s1;
+        for (Integer element: elements1) {
+            s1 = s1.conj(element);
+        }
+        for (Integer element: elements2) {
+            s2 = s2.conj(element);
+        }
+        final HashSet<Object> hs1 = new HashSet<>(elements1);
+        final HashSet<Object> hs2 = new HashSet<>(elements2);
+
+        final HashSet<Object> union = new HashSet<>(hs1);
+        union.addAll(hs2);
+        final HashSet<Object> difference = new HashSet<>(hs1);
+        difference.removeAll(hs2);
+        final HashSet<Object> intersection = new HashSet<>(hs1);
+        intersection.retainAll(hs2);
+
+        assertEquals(hs1, s1);
+        assertEquals(union, s1.union(s2));
+        assertEquals(difference, s1.difference(s2));
+        assertEquals(intersection, s1.intersection(s2));
+        assertEquals(hs2.containsAll(hs1), s1.isSubsetOf(s2));
+        assertEquals(union.hashCode(), s1.union(s2).hashCode());
+        return true;
+    }
+
+    private static class Key {
+        public final int value;
+        public final AtomicInteger compared;
+
+        public Key(final int value, final AtomicInteger compared) {
+            this.value = value;
+            this.compared = compared;
+        }
+
+        @Override
+        public int hashCode() {
+            return value;
+        }
+
+        @Override
+        public boolean equals(final Object otherObj) {
+            compared.incrementAndGet();
+            return otherObj instanceof Key
+                && ((Key) otherObj).value == value;
+        }
+    }
+}
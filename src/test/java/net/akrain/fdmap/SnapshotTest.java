@@ -0,0 +1,326 @@
+package net.akrain.fdmap;
+
+import static net.akrain.fdmap.Map.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+import org.junit.jupiter.api.Test;
+
+public class SnapshotTest {
+
+    private static final ToIntFunction<Object> HASHER = blank().keyHasher;
+
+    @Test
+    void roundTrip() throws IOException {
+        final AtomicInteger hashed = new AtomicInteger();
+        final ToIntFunction<Object> hasher = x -> {
+            hashed.incrementAndGet();
+            return HASHER.applyAsInt(x);
+        };
+        Map map = blank(hasher);
+        for (int i = 0; i < 10000; ++ i) {
+            map = map.assoc(Integer.toString(i), i);
+        }
+        map = map.assoc(null, 42);
+        final byte[] bytes = write(map, Codec.STRING, Codec.INTEGER);
+
+        hashed.set(0);
+        final Map restored = read(bytes, Codec.STRING, Codec.INTEGER, hasher);
+        assertEquals(0, hashed.get());
+        assertTrue(restored.keyHasher == hasher);
+        assertTrue(restored.root != map.root);
+        PropertiesTest.assertSameTree(map.root, restored.root);
+        assertTrue(restored.equiv(map));
+        assertEquals(map.hashCode(), restored.hashCode());
+        assertEquals(10001, restored.count());
+        assertEquals(1234, restored.get("1234"));
+        assertEquals(42, restored.get(null));
+        assertEquals(2, restored.assoc("10000", 2).get("10000"));
+    }
+
+    @Test
+    void collisions() throws IOException {
+        final ToIntFunction<Object> hasher = x -> ((Long) x).intValue() % 7;
+        Map map = blank(hasher);
+        for (long i = 0; i < 100; ++ i) {
+            map = map.assoc(i, i * i);
+        }
+        final byte[] bytes = write(map, Codec.LONG, Codec.LONG);
+        final Map restored = read(bytes, Codec.LONG, Codec.LONG, hasher);
+        PropertiesTest.assertSameTree(map.root, restored.root);
+        assertEquals(81L, restored.get(9L));
+        assertTrue(restored.dissoc(9L).equiv(map.dissoc(9L)));
+    }
+
+    @Test
+    void smallMaps() throws IOException {
+        final Map empty = read(
+            write(blank(), Codec.INTEGER, Codec.INTEGER),
+            Codec.INTEGER,
+            Codec.INTEGER,
+            HASHER);
+        assertTrue(empty == blank());
+
+        final Map single = blank().assoc(1, 2);
+        final Map restored = read(
+            write(single, Codec.INTEGER, Codec.INTEGER),
+            Codec.INTEGER,
+            Codec.INTEGER,
+            HASHER);
+        assertEquals(Nodes.Entry.class, restored.root.getClass());
+        assertEquals(single, restored);
+
+        final Map collision = blank(x -> 0).assoc(1, 1).assoc(2, 2);
+        final Map restoredCollision = read(
+            write(collision, Codec.INTEGER, Codec.INTEGER),
+            Codec.INTEGER,
+            Codec.INTEGER,
+            x -> 0);
+        assertEquals(
+            Nodes.CollisionNode.class, restoredCollision.root.getClass());
+        PropertiesTest.assertSameTree(collision.root, restoredCollision.root);
+    }
+
+    @Test
+    void corrupted() throws IOException {
+        Map map = blank();
+        for (int i = 0; i < 1000; ++ i) {
+            map = map.assoc(i, i);
+        }
+        final byte[] bytes = write(map, Codec.INTEGER, Codec.INTEGER);
+
+        final byte[] badMagic = bytes.clone();
+        badMagic[0] = 0;
+        assertThrows(IOException.class, () -> readIntegers(badMagic));
+
+        final byte[] truncated = Arrays.copyOf(bytes, bytes.length - 1);
+        assertThrows(IOException.class, () -> readIntegers(truncated));
+
+        // The value of the first entry
+        final byte[] badValue = bytes.clone();
+        ++ badValue[Snapshot.HEADER_SIZE + 1 + 4 + 4 + 3];
+        assertThrows(IOException.class, () -> readIntegers(badValue));
+
+        final byte[] badTrailer = bytes.clone();
+        ++ badTrailer[bytes.length - 5];
+        assertThrows(IOException.class, () -> readIntegers(badTrailer));
+
+        // The count of the entries of the collision node, made negative
+        final byte[] badCount = write(
+            blank(x -> 0).assoc(1, 1).assoc(2, 2),
+            Codec.INTEGER,
+            Codec.INTEGER);
+        badCount[Snapshot.HEADER_SIZE + 1 + 4] = (byte) 0x80;
+        assertThrows(IOException.class, () ->
+            read(badCount, Codec.INTEGER, Codec.INTEGER, x -> 0));
+    }
+
+    @Test
+    void delta() throws IOException {
+        Map base = blank();
+        for (int i = 0; i < 100000; ++ i) {
+            base = base.assoc(i, i);
+        }
+        final byte[] baseBytes = write(base, Codec.INTEGER, Codec.INTEGER);
+        final Map restoredBase =
+            read(baseBytes, Codec.INTEGER, Codec.INTEGER, HASHER);
+
+        final Map map = base.assoc(1, -1).assoc(100000, 0).dissoc(2);
+        final AtomicInteger written = new AtomicInteger();
+        final byte[] delta =
+            writeDelta(base, baseBytes, map, counting(written));
+        assertEquals(2, written.get());
+        assertNotEquals(readId(baseBytes), readId(delta));
+        final Map restored = readDelta(delta, restoredBase, baseBytes);
+        PropertiesTest.assertSameTree(map.root, restored.root);
+        assertTrue(restored.keyHasher == restoredBase.keyHasher);
+        assertEquals(-1, restored.get(1));
+        assertNull(restored.get(2));
+
+        // A delta of the delta
+        final Map next = map.dissoc(3);
+        written.set(0);
+        final byte[] nextDelta =
+            writeDelta(map, delta, next, counting(written));
+        final Map restoredNext = readDelta(nextDelta, restored, delta);
+        assertEquals(0, written.get());
+        PropertiesTest.assertSameTree(next.root, restoredNext.root);
+
+        written.set(0);
+        assertTrue(readDelta(
+                writeDelta(map, delta, map, counting(written)),
+                restored,
+                delta)
+            .root == restored.root);
+        assertEquals(0, written.get());
+        assertTrue(readDelta(
+                writeDelta(map, delta, blank(), Codec.INTEGER),
+                restored,
+                delta)
+            == blank());
+
+        assertThrows(IOException.class, () ->
+            readDelta(delta, restoredNext, nextDelta));
+        assertThrows(IOException.class, () ->
+            readDelta(delta, restoredBase, delta));
+        assertThrows(IOException.class, () -> readDelta(
+            write(map, Codec.INTEGER, Codec.INTEGER), restored, delta));
+        assertThrows(UnsupportedOperationException.class, () ->
+            writeDelta(blank(x -> 0), baseBytes, map, Codec.INTEGER));
+    }
+
+    @Test
+    void deltaOfAnotherBase() throws IOException {
+        // "Aa" and "BB" have the same hash, so the bases have the same
+        // entry count and hash, but different values
+        Map base = blank();
+        for (int i = 0; i < 1000; ++ i) {
+            base = base.assoc(Integer.toString(i), "Aa");
+        }
+        final Map otherBase = base.assoc("500", "BB");
+        assertEquals(base.count(), otherBase.count());
+        assertEquals(base.hashCode(), otherBase.hashCode());
+        final byte[] baseBytes = write(base, Codec.STRING, Codec.STRING);
+        final byte[] otherBaseBytes =
+            write(otherBase, Codec.STRING, Codec.STRING);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Snapshot.writeDelta(
+            base,
+            readId(baseBytes),
+            base.assoc("1000", "x"),
+            Channels.newChannel(out),
+            Codec.STRING,
+            Codec.STRING);
+        assertThrows(IOException.class, () -> Snapshot.readDelta(
+            Channels.newChannel(new ByteArrayInputStream(out.toByteArray())),
+            read(otherBaseBytes, Codec.STRING, Codec.STRING, HASHER),
+            readId(otherBaseBytes),
+            Codec.STRING,
+            Codec.STRING));
+        final Map restored = Snapshot.readDelta(
+            Channels.newChannel(new ByteArrayInputStream(out.toByteArray())),
+            read(baseBytes, Codec.STRING, Codec.STRING, HASHER),
+            readId(baseBytes),
+            Codec.STRING,
+            Codec.STRING);
+        assertEquals(base.assoc("1000", "x"), restored);
+    }
+
+    @Test
+    void deltaOfMovedLeaves() throws IOException {
+        final ToIntFunction<Object> hasher = x -> (Integer) x;
+        final Map base = blank(hasher).assoc(1, 1).assoc(2, 2);
+        final Map deeper = base.assoc(33, 33);
+        final byte[] baseBytes = write(base, Codec.INTEGER, Codec.INTEGER);
+        final Map restoredBase =
+            read(baseBytes, Codec.INTEGER, Codec.INTEGER, hasher);
+
+        // The entry of 1 is pushed down under a new ArrayNode
+        final AtomicInteger written = new AtomicInteger();
+        final byte[] deeperBytes =
+            writeDelta(base, baseBytes, deeper, counting(written));
+        final Map restoredDeeper =
+            readDelta(deeperBytes, restoredBase, baseBytes);
+        assertEquals(1, written.get());
+        PropertiesTest.assertSameTree(deeper.root, restoredDeeper.root);
+
+        // And lifted back
+        final Map shallower = deeper.dissoc(33);
+        written.set(0);
+        final Map restoredShallower = readDelta(
+            writeDelta(deeper, deeperBytes, shallower, counting(written)),
+            restoredDeeper,
+            deeperBytes);
+        assertEquals(0, written.get());
+        PropertiesTest.assertSameTree(shallower.root, restoredShallower.root);
+        assertTrue(((Nodes.ArrayNode) restoredShallower.root).children[0]
+            == ((Nodes.ArrayNode) restoredBase.root).children[0]);
+    }
+
+    // Counts the values written with it
+    private static Codec counting(final AtomicInteger written) {
+        return new Codec() {
+            @Override
+            public void write(final Object obj, final DataOutput out)
+                    throws IOException {
+                written.incrementAndGet();
+                Codec.INTEGER.write(obj, out);
+            }
+
+            @Override
+            public Object read(final DataInput in) throws IOException {
+                return Codec.INTEGER.read(in);
+            }
+        };
+    }
+
+    private static UUID readId(final byte[] bytes) throws IOException {
+        return Snapshot.readId(
+            Channels.newChannel(new ByteArrayInputStream(bytes)));
+    }
+
+    // The base is identified by the bytes of its snapshot
+    private static byte[] writeDelta(
+            final Map base,
+            final byte[] baseBytes,
+            final Map map,
+            final Codec valueCodec) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Snapshot.writeDelta(
+            base,
+            readId(baseBytes),
+            map,
+            Channels.newChannel(out),
+            Codec.INTEGER,
+            valueCodec);
+        return out.toByteArray();
+    }
+
+    private static Map readDelta(
+            final byte[] bytes,
+            final Map base,
+            final byte[] baseBytes) throws IOException {
+        return Snapshot.readDelta(
+            Channels.newChannel(new ByteArrayInputStream(bytes)),
+            base,
+            readId(baseBytes),
+            Codec.INTEGER,
+            Codec.INTEGER);
+    }
+
+    private static byte[] write(
+            final Map map,
+            final Codec keyCodec,
+            final Codec valueCodec) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Snapshot.write(map, Channels.newChannel(out), keyCodec, valueCodec);
+        return out.toByteArray();
+    }
+
+    private static Map readIntegers(final byte[] bytes)
+            throws IOException {
+        return read(bytes, Codec.INTEGER, Codec.INTEGER, HASHER);
+    }
+
+    private static Map read(
+            final byte[] bytes,
+            final Codec keyCodec,
+            final Codec valueCodec,
+            final ToIntFunction<Object> hasher) throws IOException {
+        return Snapshot.read(
+            Channels.newChannel(new ByteArrayInputStream(bytes)),
+            keyCodec,
+            valueCodec,
+            hasher);
+    }
+}
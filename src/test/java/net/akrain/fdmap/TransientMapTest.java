@@ -0,0 +1,138 @@
+package net.akrain.fdmap;
+
+import static net.akrain.fdmap.Map.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import clojure.lang.PersistentVector;
+import java.util.function.ToIntFunction;
+import org.junit.jupiter.api.Test;
+
+public class TransientMapTest {
+
+    @Test
+    void assocWithout() {
+        final TransientMap t = blank().asTransient();
+        for (int i = 0; i < 1000; ++ i) {
+            assertTrue(t.assoc(i, i) == t);
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            assertTrue(t.without(i) == t);
+        }
+        assertEquals(500, t.count());
+        final Map m = t.persistent();
+        assertEquals(500, m.count());
+        for (int i = 0; i < 1000; ++ i) {
+            assertEquals(i % 2 == 0 ? null : i, m.get(i));
+        }
+    }
+
+    @Test
+    void sourceUnchanged() {
+        Map m1 = blank();
+        for (int i = 0; i < 100; ++ i) {
+            m1 = m1.assoc(i, i);
+        }
+        final TransientMap t = m1.asTransient();
+        for (int i = 0; i < 100; i += 3) {
+            t.assoc(i, -i).without(i + 1);
+        }
+        final Map m2 = t.persistent();
+        assertEquals(100, m1.count());
+        for (int i = 0; i < 100; ++ i) {
+            assertEquals(i, m1.get(i));
+        }
+        assertEquals(67, m2.count());
+        assertEquals(-3, m2.get(3));
+        assertNull(m2.get(4));
+    }
+
+    @Test
+    void sharedSubtrees() {
+        Map m1 = blank();
+        for (int i = 0; i < 10000; ++ i) {
+            m1 = m1.assoc(i, i);
+        }
+        final Map m2 = m1.asTransient().assoc(42, 43).persistent();
+        final Map d = m2.difference(m1);
+        assertEquals(1, d.count());
+        assertEquals(43, d.get(42));
+        final Nodes.ArrayNode r1 = (Nodes.ArrayNode) m1.root;
+        final Nodes.ArrayNode r2 = (Nodes.ArrayNode) m2.root;
+        int sharedChildren = 0;
+        for (int i = 0; i < r1.children.length; ++ i) {
+            if (r1.children[i] == r2.children[i]) {
+                sharedChildren += 1;
+            }
+        }
+        assertEquals(r1.children.length - 1, sharedChildren);
+    }
+
+    @Test
+    void persistentWithoutChanges() {
+        final Map m = blank().assoc(1, 1);
+        assertTrue(m.asTransient().persistent() == m);
+        assertTrue(m.asTransient().assoc(1, 1).persistent() == m);
+        assertTrue(m.asTransient().without(1).persistent() == blank());
+    }
+
+    @Test
+    void persistentDoesNotChange() {
+        final TransientMap t = blank().asTransient().assoc(1, 1);
+        final Map m = t.persistent();
+        assertThrows(IllegalAccessError.class, () -> t.assoc(2, 2));
+        assertThrows(IllegalAccessError.class, () -> t.persistent());
+        final Map m2 = m.asTransient().assoc(1, 2).assoc(2, 2).persistent();
+        assertEquals(1, m.get(1));
+        assertNull(m.get(2));
+        assertEquals(2, m2.get(1));
+    }
+
+    @Test
+    void collisions() {
+        final ToIntFunction<Object> hasher = x -> ((Integer) x) % 3;
+        final TransientMap t = blank(hasher).asTransient();
+        for (int i = 0; i < 30; ++ i) {
+            t.assoc(i, i);
+        }
+        for (int i = 0; i < 30; i += 2) {
+            t.assoc(i, -i);
+        }
+        for (int i = 0; i < 30; i += 5) {
+            t.without(i);
+        }
+        final Map m = t.persistent();
+        assertTrue(m.keyHasher == hasher);
+        assertEquals(24, m.count());
+        assertEquals(-2, m.get(2));
+        assertEquals(3, m.get(3));
+        assertNull(m.get(5));
+        // Values of collision nodes were replaced in place
+        assertEquals(new java.util.HashMap<>(m).hashCode(), m.hashCode());
+    }
+
+    @Test
+    void lookup() {
+        final TransientMap t = blank().asTransient().assoc(1, 2);
+        assertEquals(2, t.valAt(1));
+        assertEquals(42, t.valAt(2, 42));
+        assertEquals(2, t.invoke(1));
+        assertTrue(t.containsKey(1));
+        assertFalse(t.containsKey(2));
+        assertEquals(2, t.entryAt(1).getValue());
+    }
+
+    @Test
+    void conj() {
+        final Map m = blank().asTransient()
+            .conj(PersistentVector.create(1, 2))
+            .conj(java.util.Map.entry(3, 4))
+            .conj(blank().assoc(5, 6))
+            .persistent();
+        assertEquals(3, m.count());
+        assertEquals(2, m.get(1));
+        assertEquals(4, m.get(3));
+        assertEquals(6, m.get(5));
+        assertThrows(IllegalArgumentException.class,
+            () -> blank().asTransient().conj(PersistentVector.create(1)));
+    }
+}